@@ -16,9 +16,23 @@
 
 package com.s13g.idioma;
 
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.s13g.idioma.data.BinsCache;
 import com.s13g.idioma.data.Register;
+import com.s13g.idioma.data.TranslationFilter;
+import com.s13g.idioma.metrics.Histogram;
+import com.s13g.idioma.metrics.Metrics;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Common servlet class for all Idioma servlets. Ensures that all required data classes are registered with
@@ -28,4 +42,105 @@ public abstract class AbstractIdiomaServlet extends HttpServlet {
   static {
     Register.ensureRegistered();
   }
+
+  protected static final Gson GSON = new Gson();
+
+  /**
+   * Whether signed in users other than the admins get their own, initially empty decks.
+   */
+  private static final boolean PER_USER_DECKS = Boolean.getBoolean("idioma.decks.perUser");
+
+  /**
+   * Request latency of this servlet, keyed by HTTP method.
+   */
+  private final ConcurrentMap<String, Histogram> mLatencyByMethod = new ConcurrentHashMap<>();
+
+  @Override
+  protected void service(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    long start = System.nanoTime();
+    try {
+      super.service(req, resp);
+    } finally {
+      getLatencyHistogram(req.getMethod()).observeSince(start);
+    }
+  }
+
+  private Histogram getLatencyHistogram(String method) {
+    Histogram histogram = mLatencyByMethod.get(method);
+    if (histogram == null) {
+      histogram = Metrics.get().latencyHistogram("idioma_request_duration_seconds",
+          "Time spent handling requests.", "servlet", getClass().getSimpleName(),
+          "method", method);
+      mLatencyByMethod.put(method, histogram);
+    }
+    return histogram;
+  }
+
+  /**
+   * @return The ID of the deck the current user is learning. If per user decks are enabled, every
+   * signed in user except the admins has their own deck. Everybody else shares the default deck,
+   * which holds the progress made before per user decks existed.
+   */
+  protected static String getDeckId() {
+    if (!PER_USER_DECKS) {
+      return BinsCache.DEFAULT_DECK;
+    }
+    UserService userService = UserServiceFactory.getUserService();
+    User user = userService.getCurrentUser();
+    if (user == null || userService.isUserAdmin()) {
+      return BinsCache.DEFAULT_DECK;
+    }
+    // Used as datastore namespace, so it must only contain [0-9A-Za-z._-].
+    return "user-" + user.getUserId();
+  }
+
+  /**
+   * @return The filter restricting which translations are asked, as given by the optional
+   * request parameters "important", "conversation", "reversed" and "disabled", each "true" or
+   * "false". Disabled translations are excluded unless asked for.
+   */
+  protected static TranslationFilter getFilter(HttpServletRequest req) {
+    TranslationFilter filter = TranslationFilter.ENABLED;
+    if (req.getParameter("important") != null) {
+      filter = filter.withImportant(Boolean.parseBoolean(req.getParameter("important")));
+    }
+    if (req.getParameter("conversation") != null) {
+      filter = filter.withFromConversation(
+          Boolean.parseBoolean(req.getParameter("conversation")));
+    }
+    if (req.getParameter("reversed") != null) {
+      filter = filter.withReversed(Boolean.parseBoolean(req.getParameter("reversed")));
+    }
+    if (req.getParameter("disabled") != null) {
+      filter = filter.withDisabled(Boolean.parseBoolean(req.getParameter("disabled")));
+    }
+    return filter;
+  }
+
+  /**
+   * Sends the given object as JSON. Responses are never cached, since they change with every
+   * request.
+   */
+  protected static void sendJson(HttpServletResponse resp, Object response) throws IOException {
+    resp.setContentType("application/json; charset=UTF-8");
+    resp.setCharacterEncoding("UTF-8");
+    resp.setHeader("Cache-Control", "no-store");
+    GSON.toJson(response, resp.getWriter());
+  }
+
+  /**
+   * Sends an error as JSON, like <code>{"error": "message"}</code>.
+   */
+  protected static void sendError(HttpServletResponse resp, int status, String message)
+      throws IOException {
+    resp.setStatus(status);
+    ErrorResponse error = new ErrorResponse();
+    error.error = message;
+    sendJson(resp, error);
+  }
+
+  private static class ErrorResponse {
+    String error;
+  }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma;
+
+import com.google.gson.JsonParseException;
+import com.s13g.idioma.data.Bins;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationSet;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A JSON API that lets clients fetch several questions and submit several answers at once, so
+ * they need one round trip per batch instead of one per question.
+ * <p>
+ * GET /api/questions?n=N returns up to N distinct random questions, optionally filtered like the
+ * quiz page, e.g. with important=true. POST /api/answers takes a batch of answers like
+ * <code>{"answers": [{"hash": "123", "correct": true}]}</code>.
+ * <p>
+ * Hashes are sent as strings, since JavaScript numbers cannot represent all 64 bit values.
+ */
+public class ApiServlet extends AbstractIdiomaServlet {
+  private static final Logger LOG = Logger.getLogger("ApiServlet");
+
+  private static final int DEFAULT_NUM_QUESTIONS = 10;
+  private static final int MAX_NUM_QUESTIONS = 100;
+  private static final int MAX_NUM_ANSWERS = 1000;
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    if (!"/questions".equals(req.getPathInfo())) {
+      sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Unknown resource.");
+      return;
+    }
+    int numQuestions = DEFAULT_NUM_QUESTIONS;
+    if (req.getParameter("n") != null) {
+      try {
+        numQuestions = Integer.parseInt(req.getParameter("n"));
+      } catch (NumberFormatException e) {
+        sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid number of questions.");
+        return;
+      }
+      if (numQuestions < 1 || numQuestions > MAX_NUM_QUESTIONS) {
+        sendError(resp, HttpServletResponse.SC_BAD_REQUEST,
+            "Number of questions must be between 1 and " + MAX_NUM_QUESTIONS + ".");
+        return;
+      }
+    }
+    Bins bins = Bins.getInstance(getDeckId());
+    if (bins == null) {
+      sendError(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "No data found.");
+      return;
+    }
+
+    QuestionsResponse response = new QuestionsResponse();
+    for (TranslationSet set : bins.getRandom(numQuestions, getFilter(req))) {
+      response.questions.add(Question.from(set));
+    }
+    sendJson(resp, response);
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    if (!"/answers".equals(req.getPathInfo())) {
+      sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Unknown resource.");
+      return;
+    }
+    List<Bins.Response> responses = new ArrayList<>();
+    try {
+      AnswersRequest request = GSON.fromJson(req.getReader(), AnswersRequest.class);
+      if (request == null || request.answers == null) {
+        sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "No answers given.");
+        return;
+      }
+      if (request.answers.size() > MAX_NUM_ANSWERS) {
+        sendError(resp, HttpServletResponse.SC_BAD_REQUEST,
+            "At most " + MAX_NUM_ANSWERS + " answers can be submitted at once.");
+        return;
+      }
+      for (Answer answer : request.answers) {
+        if (answer == null || answer.hash == null) {
+          sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Answer without hash.");
+          return;
+        }
+        responses.add(new Bins.Response(Long.parseLong(answer.hash), answer.correct));
+      }
+    } catch (JsonParseException | NumberFormatException e) {
+      LOG.warning("Invalid answers: " + e.getMessage());
+      sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid answers.");
+      return;
+    }
+    Bins bins = Bins.getInstance(getDeckId());
+    if (bins == null) {
+      sendError(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "No data found.");
+      return;
+    }
+
+    AnswersResponse response = new AnswersResponse();
+    response.numProcessed = bins.processResponses(responses);
+    response.numSkipped = responses.size() - response.numProcessed;
+    sendJson(resp, response);
+  }
+
+  private static class Question {
+    String hash;
+    String source;
+    String note;
+    String solution;
+    List<String> altSolutions = new ArrayList<>();
+    List<String> altSolutionHashes = new ArrayList<>();
+
+    static Question from(TranslationSet set) {
+      Question question = new Question();
+      question.hash = String.valueOf(set.mainTranslation.hash);
+      question.source = set.mainTranslation.source;
+      question.note = set.mainTranslation.note;
+      question.solution = set.mainTranslation.translated;
+      for (Translation alternative : set.alternatives) {
+        question.altSolutions.add(alternative.translated);
+        question.altSolutionHashes.add(String.valueOf(alternative.hash));
+      }
+      return question;
+    }
+  }
+
+  private static class QuestionsResponse {
+    List<Question> questions = new ArrayList<>();
+  }
+
+  private static class Answer {
+    String hash;
+    boolean correct;
+  }
+
+  private static class AnswersRequest {
+    List<Answer> answers;
+  }
+
+  private static class AnswersResponse {
+    int numProcessed;
+    int numSkipped;
+  }
+}
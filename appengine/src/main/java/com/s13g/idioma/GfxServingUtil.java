@@ -1,33 +1,201 @@
 package com.s13g.idioma;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Class that deals with finding ans erving graphics resources.
+ * Class that deals with finding and serving graphics resources.
+ * <p>
+ * Files are read once and kept in memory, together with a gzipped variant for formats that
+ * compress well, until they change on disk. Responses carry an ETag, Last-Modified and a long
+ * Cache-Control, so browsers only revalidate them now and then and get a 304 if nothing changed.
  */
 class GfxServingUtil {
+  private static final String GFX_PATH = "/gfx/";
+  /**
+   * Graphics are not versioned by URL, so changes need to become visible eventually.
+   */
+  private static final long MAX_AGE_SECONDS = 7 * 24 * 60 * 60;
+  /**
+   * Larger files are streamed from disk instead of being cached.
+   */
+  private static final int MAX_CACHED_SIZE = 1024 * 1024;
+
+  private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+  private static final Map<String, String> CONTENT_TYPES = ImmutableMap.<String, String>builder()
+      .put("png", "image/png")
+      .put("jpg", "image/jpeg")
+      .put("jpeg", "image/jpeg")
+      .put("gif", "image/gif")
+      .put("webp", "image/webp")
+      .put("svg", "image/svg+xml")
+      .put("ico", "image/x-icon")
+      .put("css", "text/css; charset=UTF-8")
+      .put("js", "application/javascript; charset=UTF-8")
+      .put("json", "application/json; charset=UTF-8")
+      .build();
+  /**
+   * Formats that are not compressed already.
+   */
+  private static final Set<String> COMPRESSIBLE =
+      ImmutableSet.of("svg", "ico", "css", "js", "json");
+
+  private static final ConcurrentMap<String, Resource> sCache = new ConcurrentHashMap<>();
+
   boolean serve(HttpServletRequest req, HttpServletResponse resp) throws IOException {
     String requestUri = req.getRequestURI();
-    if (requestUri == null || !req.getRequestURI().startsWith("/gfx")) {
+    if (requestUri == null || !requestUri.startsWith(GFX_PATH)) {
       return false;
     }
-    try {
-      InputStream fileStream = new FileInputStream(new File("WEB-INF" + requestUri));
-      if (requestUri.toLowerCase().endsWith(".png")) {
-        resp.setContentType("image/png");
-      }
-      ByteStreams.copy(fileStream, resp.getOutputStream());
-    } catch (FileNotFoundException ex) {
+    File file = new File("WEB-INF" + requestUri);
+    if (requestUri.contains("..") || !file.isFile()) {
       resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      return true;
+    }
+    String contentType = getContentType(requestUri);
+    if (file.length() > MAX_CACHED_SIZE) {
+      resp.setContentType(contentType);
+      resp.setHeader("Cache-Control", "public, max-age=" + MAX_AGE_SECONDS);
+      try (InputStream fileStream = new FileInputStream(file)) {
+        ByteStreams.copy(fileStream, resp.getOutputStream());
+      }
+      return true;
+    }
+
+    Resource resource = getResource(requestUri, file);
+    boolean gzip = resource.gzipped != null && ResponseEncoding.acceptsGzip(req);
+    String etag = gzip ? resource.gzippedEtag : resource.etag;
+    resp.setHeader("ETag", etag);
+    resp.setDateHeader("Last-Modified", resource.lastModified);
+    resp.setHeader("Cache-Control", "public, max-age=" + MAX_AGE_SECONDS);
+    if (resource.gzipped != null) {
+      resp.setHeader("Vary", "Accept-Encoding");
     }
+    if (isNotModified(req, resource)) {
+      resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+
+    byte[] data = gzip ? resource.gzipped : resource.data;
+    resp.setContentType(contentType);
+    if (gzip) {
+      resp.setHeader("Content-Encoding", "gzip");
+    }
+    resp.setContentLength(data.length);
+    resp.getOutputStream().write(data);
     return true;
   }
+
+  /**
+   * @return The cached resource for the given file, read again if it changed on disk.
+   */
+  private static Resource getResource(String requestUri, File file) throws IOException {
+    long lastModified = file.lastModified();
+    long length = file.length();
+    Resource resource = sCache.get(requestUri);
+    if (resource == null || resource.fileLastModified != lastModified ||
+        resource.data.length != length) {
+      // Racing requests might both read the file, which is harmless.
+      resource = new Resource(Files.toByteArray(file), lastModified,
+          COMPRESSIBLE.contains(getExtension(requestUri)));
+      sCache.put(requestUri, resource);
+    }
+    return resource;
+  }
+
+  /**
+   * If-None-Match takes precedence over If-Modified-Since, see RFC 7232.
+   */
+  private static boolean isNotModified(HttpServletRequest req, Resource resource) {
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        // Weak comparison: Proxies may mark a tag as weak when they change the encoding.
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if (tag.equals("*") || tag.equals(resource.etag) || tag.equals(resource.gzippedEtag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = req.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    return ifModifiedSince != -1 && resource.lastModified <= ifModifiedSince;
+  }
+
+  private static String getContentType(String requestUri) {
+    String contentType = CONTENT_TYPES.get(getExtension(requestUri));
+    return contentType != null ? contentType : DEFAULT_CONTENT_TYPE;
+  }
+
+  private static String getExtension(String requestUri) {
+    return Files.getFileExtension(requestUri).toLowerCase(Locale.US);
+  }
+
+  private static class Resource {
+    final byte[] data;
+    /**
+     * Null, if the format does not compress well.
+     */
+    @Nullable
+    final byte[] gzipped;
+    final String etag;
+    @Nullable
+    final String gzippedEtag;
+    /**
+     * In whole seconds, like the Last-Modified and If-Modified-Since headers.
+     */
+    final long lastModified;
+    final long fileLastModified;
+
+    Resource(byte[] data, long fileLastModified, boolean compressible) throws IOException {
+      this.data = data;
+      this.fileLastModified = fileLastModified;
+      lastModified = fileLastModified / 1000 * 1000;
+      String hash = Hashing.murmur3_128().hashBytes(data).toString();
+      etag = "\"" + hash + "\"";
+      byte[] gzipped = compressible ? gzip(data) : null;
+      if (gzipped != null && gzipped.length < data.length) {
+        this.gzipped = gzipped;
+        // Strong ETags differ between encodings of the same content.
+        gzippedEtag = "\"" + hash + "-gzip\"";
+      } else {
+        this.gzipped = null;
+        gzippedEtag = null;
+      }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+      try (GZIPOutputStream gzipStream = new GZIPOutputStream(out)) {
+        gzipStream.write(data);
+      }
+      return out.toByteArray();
+    }
+  }
 }
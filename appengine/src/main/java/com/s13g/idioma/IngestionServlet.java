@@ -16,16 +16,8 @@
 
 package com.s13g.idioma;
 
-import com.google.common.io.ByteStreams;
-import com.s13g.idioma.data.IngestionUtil;
-import com.s13g.idioma.data.IngestionUtil.IngestionException;
-import com.s13g.idioma.data.IngestionUtil.UpdateStats;
-import com.s13g.idioma.data.Translation;
-import com.s13g.idioma.data.TranslationProvider.TranslationProvidingException;
-import com.s13g.idioma.data.TranslationsUtil;
-import com.s13g.idioma.ingestion.CsvTranslationProvider;
-import com.s13g.idioma.ingestion.SpreadsheetsTranslationProvider;
-import com.s13g.idioma.data.TranslationProvider;
+import com.s13g.idioma.data.IngestionState;
+import com.s13g.idioma.ingestion.IngestionJobs;
 import com.s13g.idioma.ui.Template;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
@@ -35,12 +27,12 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
-import java.util.Collection;
+import java.net.URLEncoder;
 import java.util.logging.Logger;
 
 /**
- * Frontend for the data ingestion.
+ * Frontend for the data ingestion. Ingestions run as tasks, whose progress is reported
+ * by the {@link IngestionStatusServlet}.
  */
 public class IngestionServlet extends AbstractIdiomaServlet {
   private static final Logger LOG = Logger.getLogger("IngestionServlet");
@@ -48,9 +40,10 @@ public class IngestionServlet extends AbstractIdiomaServlet {
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws ServletException, IOException {
-    resp.setContentType("text/html");
-    String html = Template.fromFile("WEB-INF/html/ingestion.html").render();
-    resp.getWriter().write(html);
+    resp.setContentType("text/html; charset=UTF-8");
+    ResponseBody body = new ResponseBody(req, resp);
+    Template.fromFile("WEB-INF/html/ingestion.html").renderTo(body);
+    body.close();
   }
 
   @Override
@@ -58,14 +51,14 @@ public class IngestionServlet extends AbstractIdiomaServlet {
       throws ServletException, IOException {
     resp.setContentType("text/html");
 
-    int numTranslations;
-    TranslationProvider provider;
+    IngestionState state;
     LOG.info("Source param: " + req.getParameter("source"));
     if ("gsheets".equals(req.getParameter("source"))) {
-      provider = SpreadsheetsTranslationProvider.create();
+      state = IngestionJobs.get().submitSheetSync(getDeckId());
     } else {
       try {
-        provider = getCsvProvider(req);
+        // The upload can only be read during the request, so it is stored for the task.
+        state = IngestionJobs.get().submitUpload(getDeckId(), getCsvStream(req));
       } catch (Exception e) {
         resp.getWriter().write(e.getMessage());
         resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -73,29 +66,14 @@ public class IngestionServlet extends AbstractIdiomaServlet {
       }
     }
 
-    if (provider == null) {
-      resp.getWriter().write("No ingestion provider found.");
-      resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-      return;
-    }
-
-    UpdateStats updateStats;
-    try {
-      TranslationsUtil translationsUtil = new TranslationsUtil();
-      Collection<Translation> ingested = provider.getCompleteSet();
-      Collection<Translation> existing = translationsUtil.getCompleteSet();
-
-      // Ingest the new items.
-      updateStats = (new IngestionUtil()).ingest(existing, ingested, translationsUtil);
-    } catch (IngestionException | TranslationProvidingException e) {
-      resp.getWriter().write("Something went wrong: " + e.getMessage());
-      return;
-    }
-    resp.getWriter().write(String.format("Access. Added: %d  Deleted: %d  Updated: %d",
-        updateStats.numAdded, updateStats.numDeleted, updateStats.numUpdated));
+    String statusUrl = "/ingest/status?source=" +
+        URLEncoder.encode(state.getSourceKey(), "UTF-8");
+    resp.getWriter().write(String.format(
+        "Ingestion job %s: %s. See <a href=\"%s\">%s</a> for its progress.",
+        state.getJobId(), state.getPhase(), statusUrl, statusUrl));
   }
 
-  private TranslationProvider getCsvProvider(HttpServletRequest req) throws IOException,
+  private InputStream getCsvStream(HttpServletRequest req) throws IOException,
       FileUploadException {
     InputStream fileStream;
     ServletFileUpload upload = new ServletFileUpload();
@@ -104,8 +82,6 @@ public class IngestionServlet extends AbstractIdiomaServlet {
     if (fileStream == null) {
       throw new IOException("No file stream");
     }
-    byte[] bytes = ByteStreams.toByteArray(fileStream);
-    String csvString = new String(bytes, Charset.forName("UTF-8"));
-    return new CsvTranslationProvider(csvString);
+    return fileStream;
   }
 }
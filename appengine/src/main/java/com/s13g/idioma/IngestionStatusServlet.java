@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma;
+
+import com.s13g.idioma.data.IngestionState;
+import com.s13g.idioma.data.IngestionStore;
+import com.s13g.idioma.data.IngestionUtil.UpdateStats;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reports the progress of the latest ingestion of a source as JSON.
+ * <p>
+ * GET /ingest/status?source=KEY returns e.g. <code>{"id": "..", "source": "gsheets", "phase":
+ * "WRITING", "numFetched": 2000, "numWritten": 500}</code>. Once the phase is DONE, the numbers
+ * of added, deleted and updated translations are included. If it is FAILED, the error is.
+ */
+public class IngestionStatusServlet extends AbstractIdiomaServlet {
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    String sourceKey = req.getParameter("source");
+    if (sourceKey == null) {
+      sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "No source given.");
+      return;
+    }
+    // Users can only see the ingestions of their own deck.
+    IngestionState state = new IngestionStore(getDeckId()).getState(sourceKey);
+    if (state == null) {
+      sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Unknown source.");
+      return;
+    }
+    sendJson(resp, StatusResponse.from(state));
+  }
+
+  private static class StatusResponse {
+    String id;
+    String source;
+    String phase;
+    int numFetched;
+    int numWritten;
+    Integer numAdded;
+    Integer numDeleted;
+    Integer numUpdated;
+    String error;
+    long createdMillis;
+    Long finishedMillis;
+
+    static StatusResponse from(IngestionState state) {
+      StatusResponse response = new StatusResponse();
+      response.id = state.getJobId();
+      response.source = state.getSourceKey();
+      response.phase = state.getPhase().name();
+      response.numFetched = state.getNumFetched();
+      response.numWritten = state.getNumWritten();
+      UpdateStats stats = state.getUpdateStats();
+      if (stats != null) {
+        response.numAdded = stats.numAdded;
+        response.numDeleted = stats.numDeleted;
+        response.numUpdated = stats.numUpdated;
+      }
+      response.error = state.getError();
+      response.createdMillis = state.getCreatedMillis();
+      if (state.isFinished()) {
+        response.finishedMillis = state.getFinishedMillis();
+      }
+      return response;
+    }
+  }
+}
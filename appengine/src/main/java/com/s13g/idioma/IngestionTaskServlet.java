@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma;
+
+import com.s13g.idioma.ingestion.IngestionJobs;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Runs an ingestion job as a push task of the "ingestion" queue, see {@link IngestionJobs}. Only
+ * reachable by the task queue and admins.
+ * <p>
+ * POST /ingest/task with the parameters "deck", "source" and "job".
+ */
+public class IngestionTaskServlet extends AbstractIdiomaServlet {
+  private static final Logger LOG = Logger.getLogger("IngestionTaskServlet");
+
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    String deckId = req.getParameter("deck");
+    String sourceKey = req.getParameter("source");
+    String jobId = req.getParameter("job");
+    if (deckId == null || sourceKey == null || jobId == null) {
+      // Retrying would not help, so the task still succeeds.
+      LOG.warning("Ingestion task without deck, source or job.");
+      return;
+    }
+    // Succeeds even if the job failed, its state records that. Retrying it would fail again.
+    IngestionJobs.get().runTask(deckId, sourceKey, jobId);
+    resp.setStatus(HttpServletResponse.SC_OK);
+  }
+}
@@ -17,17 +17,17 @@
 package com.s13g.idioma;
 
 import com.s13g.idioma.data.Bins;
-import com.s13g.idioma.data.Translation;
 import com.s13g.idioma.data.TranslationProvider;
 import com.s13g.idioma.data.TranslationSet;
 import com.s13g.idioma.data.TranslationsUtil;
+import com.s13g.idioma.metrics.Histogram;
+import com.s13g.idioma.metrics.Metrics;
 import com.s13g.idioma.ui.Template;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,10 +36,18 @@ import java.util.logging.Logger;
  */
 public class MainServlet extends AbstractIdiomaServlet {
   private static final Logger LOG = Logger.getLogger("MainServlet");
+  private static final Histogram sRenderDuration = Metrics.get().latencyHistogram(
+      "idioma_render_duration_seconds", "Time spent rendering pages.", "page", "quiz");
+
+  private final GfxServingUtil mGfxServingUtil = new GfxServingUtil();
 
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws ServletException, IOException {
+    // This servlet is mapped to "/", so it also gets the requests for graphics.
+    if (mGfxServingUtil.serve(req, resp)) {
+      return;
+    }
     doServe(req, resp);
   }
 
@@ -48,7 +56,10 @@ public class MainServlet extends AbstractIdiomaServlet {
       throws ServletException, IOException {
     long hash = Long.parseLong(req.getParameter("hash"));
     boolean correct = Boolean.parseBoolean(req.getParameter("correct"));
-    Bins.getInstance().processResponse(hash, correct);
+    Bins bins = Bins.getInstance(getDeckId());
+    if (bins != null) {
+      bins.processResponse(hash, correct);
+    }
     doServe(req, resp);
   }
 
@@ -56,43 +67,25 @@ public class MainServlet extends AbstractIdiomaServlet {
       throws ServletException, IOException {
     resp.setContentType("text/html; charset=UTF-8");
     resp.setCharacterEncoding("UTF-8");
-    TranslationSet set = Bins.getInstance().getRandom();
+    Bins bins = Bins.getInstance(getDeckId());
+    TranslationSet set = bins != null ? bins.getRandom(getFilter(req)) : null;
     if (set == null) {
       resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
       resp.getWriter().write("No data found.");
       return;
     }
 
-    String html = Template.fromFile("WEB-INF/html/index.html")
+    long renderStart = System.nanoTime();
+    ResponseBody body = new ResponseBody(req, resp);
+    Template.fromFile("WEB-INF/html/index.html")
         .with("source", set.mainTranslation.source)
         .with("note", set.mainTranslation.note)
         .with("hash", set.mainTranslation.hash)
         .with("solution", set.mainTranslation.translated)
-        .with("alt_solutions", createAltSolutionParam(set.alternatives))
-        .with("alt_solution_hashes", createAltSolutionHashesParam(set.alternatives))
-        .render();
-    resp.getWriter().write(html);
-  }
-
-  private static String createAltSolutionParam(List<Translation> translations) {
-    String result = "";
-    for (Translation translation : translations) {
-      if (!result.isEmpty()) {
-        result += ",";
-      }
-      result += translation.translated;
-    }
-    return result;
-  }
-
-  private static String createAltSolutionHashesParam(List<Translation> translations) {
-    String result = "";
-    for (Translation translation : translations) {
-      if (!result.isEmpty()) {
-        result += ",";
-      }
-      result += translation.hash;
-    }
-    return result;
+        .with("alt_solutions", set.altSolutions)
+        .with("alt_solution_hashes", set.altSolutionHashes)
+        .renderTo(body);
+    body.close();
+    sRenderDuration.observeSince(renderStart);
   }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma;
+
+import com.s13g.idioma.metrics.Metrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Exports the metrics of this instance in the Prometheus text format, e.g. request latencies,
+ * time spent sampling and in the datastore, and the size of the decks held in memory.
+ */
+public class MetricsServlet extends AbstractIdiomaServlet {
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    resp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+    resp.setCharacterEncoding("UTF-8");
+    Metrics.get().writeTo(resp.getWriter());
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma;
+
+import com.google.common.base.Charsets;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The body of a page. It is collected in memory and sent when closed, gzipped if the client
+ * accepts it, with its Content-Length. Pages are small, so this costs less than sending them in
+ * chunks, and clients know up front how much is coming.
+ */
+class ResponseBody extends OutputStream {
+  /**
+   * Smaller bodies fit into a single packet anyway, so compressing them gains nothing.
+   */
+  private static final int MIN_GZIP_SIZE = 1024;
+
+  private final HttpServletRequest mReq;
+  private final HttpServletResponse mResp;
+  private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(16 * 1024);
+  private boolean mClosed;
+
+  ResponseBody(HttpServletRequest req, HttpServletResponse resp) {
+    mReq = req;
+    mResp = resp;
+  }
+
+  /**
+   * @return A writer encoding to UTF-8 into this body. Closing the writer sends the body.
+   */
+  Writer asWriter() {
+    return new OutputStreamWriter(this, Charsets.UTF_8);
+  }
+
+  @Override
+  public void write(int b) {
+    mBuffer.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    mBuffer.write(b, off, len);
+  }
+
+  /**
+   * Sends the body. The response must not be written to otherwise. Nothing is sent if the body
+   * is never closed, e.g. because rendering it failed, so the client gets an error instead of
+   * half a page.
+   */
+  @Override
+  public void close() throws IOException {
+    if (mClosed) {
+      return;
+    }
+    mClosed = true;
+    // The body depends on the Accept-Encoding header, so caches must not mix them up.
+    mResp.setHeader("Vary", "Accept-Encoding");
+    ByteArrayOutputStream body = mBuffer;
+    if (mBuffer.size() >= MIN_GZIP_SIZE && ResponseEncoding.acceptsGzip(mReq)) {
+      body = new ByteArrayOutputStream(mBuffer.size() / 3);
+      try (GZIPOutputStream gzipStream = new GZIPOutputStream(body)) {
+        mBuffer.writeTo(gzipStream);
+      }
+      mResp.setHeader("Content-Encoding", "gzip");
+    }
+    mResp.setContentLength(body.size());
+    body.writeTo(mResp.getOutputStream());
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Negotiates the content encoding of responses.
+ */
+class ResponseEncoding {
+  private ResponseEncoding() {
+  }
+
+  /**
+   * @return Whether the client accepts gzipped responses, i.e. its Accept-Encoding header lists
+   * gzip or "*" without ruling it out with a quality of 0.
+   */
+  static boolean acceptsGzip(HttpServletRequest req) {
+    String acceptEncoding = req.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    boolean accepted = false;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+      boolean gzip = name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip");
+      if (!gzip && !name.equals("*")) {
+        continue;
+      }
+      boolean acceptable = true;
+      for (int i = 1; i < parts.length; ++i) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          acceptable = !parameter.substring(2).matches("0(\\.0*)?");
+        }
+      }
+      if (gzip) {
+        // An explicit entry overrides "*".
+        return acceptable;
+      }
+      accepted = acceptable;
+    }
+    return accepted;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma;
+
+import com.google.appengine.api.LifecycleManager;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import com.s13g.idioma.data.Bins;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.util.logging.Logger;
+
+/**
+ * Ensures that pending data is written to the datastore before the instance goes away.
+ */
+public class ShutdownListener implements ServletContextListener {
+  private static final Logger LOG = Logger.getLogger("ShutdownListener");
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    // Only called on manual and basic scaling instances.
+    LifecycleManager.getInstance().setShutdownHook(new LifecycleManager.ShutdownHook() {
+      @Override
+      public void shutdown() {
+        onShutdown();
+      }
+    });
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    onShutdown();
+  }
+
+  private static void onShutdown() {
+    LOG.info("Shutting down, writing pending data.");
+    // Shutdown happens outside of any request, so the ObjectifyFilter does not cover it.
+    try (Closeable ignored = ObjectifyService.begin()) {
+      Bins.onShutdown();
+    }
+  }
+}
@@ -18,11 +18,14 @@ package com.s13g.idioma;
 
 import com.s13g.idioma.data.Bins;
 import com.s13g.idioma.data.Bins.Statistics;
+import com.s13g.idioma.data.BinsCache;
+import com.s13g.idioma.data.WriteBehindDataStoreUpdater;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.Writer;
 
 /**
  * Renders statistics about the current data, e.g. how many items are in the bins.
@@ -31,12 +34,37 @@ public class StatisticsServlet extends AbstractIdiomaServlet {
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws ServletException, IOException {
+    String deckId = getDeckId();
+    Bins bins = Bins.getInstance(deckId);
+    resp.setContentType("text/plain; charset=UTF-8");
+    if (bins == null) {
+      resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      resp.getWriter().write("No data found.");
+      return;
+    }
 
-    Statistics statistics = Bins.getInstance().getStatistics();
-    resp.setContentType("text/plain");
-
+    Writer writer = new ResponseBody(req, resp).asWriter();
+    Statistics statistics = bins.getStatistics();
     for (int i = 0; i < statistics.numItemsInBin.length; ++i) {
-      resp.getWriter().append(String.format("Bin #%d -> %d\n", i, statistics.numItemsInBin[i]));
+      writer.append(String.format("Bin #%d -> %d\n", i, statistics.numItemsInBin[i]));
+    }
+
+    WriteBehindDataStoreUpdater.Statistics writeStats = Bins.getWriteStatistics(deckId);
+    writer.append(String.format("Writes pending -> %d\n", writeStats.numPending));
+    writer.append(String.format("Writes flushed -> %d (in %d batches)\n",
+        writeStats.numFlushed, writeStats.numBatches));
+    writer.append(String.format("Writes coalesced -> %d\n", writeStats.numCoalesced));
+
+    BinsCache.Statistics cacheStats = Bins.getCacheStatistics();
+    writer.append(String.format("Decks loaded -> %d (%d of max. %d translations)\n",
+        cacheStats.numDecksLoaded, cacheStats.numTranslationsLoaded,
+        cacheStats.maxTranslations));
+    writer.append(String.format("Deck heap estimate -> %d KB\n",
+        cacheStats.numBytesEstimated / 1024));
+    String reloadError = Bins.getReloadError(deckId);
+    if (reloadError != null) {
+      writer.append(String.format("Last reload failed -> %s\n", reloadError));
     }
+    writer.close();
   }
 }
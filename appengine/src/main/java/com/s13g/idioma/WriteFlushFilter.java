@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma;
+
+import com.s13g.idioma.data.Bins;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * Writes answers that have been pending for too long at the end of each request. Automatically
+ * scaled instances have no background threads to do that periodically, so otherwise answers
+ * would only be written by later answers to the same deck, and lost if none come.
+ * <p>
+ * Must be mapped after the ObjectifyFilter, so that it runs within its context.
+ */
+public class WriteFlushFilter implements Filter {
+  @Override
+  public void init(FilterConfig config) {
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      Bins.flushDueWrites();
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+}
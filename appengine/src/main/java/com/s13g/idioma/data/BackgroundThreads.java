@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.google.appengine.api.ThreadManager;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates executors running on App Engine background threads.
+ * <p>
+ * Background threads are only available on manual and basic scaling instances. Elsewhere the
+ * thread factory is missing, or it fails to create threads, in which case the executor throws
+ * when given a task. Callers must then run the task themselves.
+ */
+public class BackgroundThreads {
+  private static final Logger LOG = Logger.getLogger("BackgroundThreads");
+
+  private BackgroundThreads() {
+  }
+
+  /**
+   * @return An executor running tasks one at a time on a background thread, or null if
+   * background threads are not available at all.
+   */
+  @Nullable
+  public static ExecutorService newSingleThreadExecutor() {
+    ThreadFactory factory = getThreadFactory();
+    return factory != null ? Executors.newSingleThreadExecutor(factory) : null;
+  }
+
+  /**
+   * @return A scheduled executor running tasks one at a time on a background thread, or null if
+   * background threads are not available at all.
+   */
+  @Nullable
+  public static ScheduledExecutorService newSingleThreadScheduledExecutor() {
+    ThreadFactory factory = getThreadFactory();
+    return factory != null ? Executors.newSingleThreadScheduledExecutor(factory) : null;
+  }
+
+  @Nullable
+  private static ThreadFactory getThreadFactory() {
+    final ThreadFactory factory;
+    try {
+      factory = ThreadManager.backgroundThreadFactory();
+    } catch (RuntimeException ex) {
+      LOG.log(Level.WARNING, "Background threads not available.", ex);
+      return null;
+    }
+    if (factory == null) {
+      LOG.warning("Background threads not available.");
+      return null;
+    }
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = factory.newThread(runnable);
+        if (thread == null) {
+          // Otherwise the executor would queue the task without ever running it.
+          throw new IllegalStateException("Cannot create a background thread.");
+        }
+        return thread;
+      }
+    };
+  }
+}
@@ -16,161 +16,799 @@
 
 package com.s13g.idioma.data;
 
+import com.s13g.idioma.metrics.Gauge;
+import com.s13g.idioma.metrics.Histogram;
+import com.s13g.idioma.metrics.Metrics;
+
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 /**
  * Wraps a collection of Translations and makes them accessible in a bin-level.
+ * <p>
+ * Instances are thread-safe. Every bin is guarded by its own lock, so answers for items in
+ * different bins can be processed in parallel. A translation's bin and counters may only be
+ * changed while holding the lock of the bin it currently lives in. Adding and removing
+ * translations additionally excludes all other access through a read/write lock, as does
+ * changing their flags.
+ * <p>
+ * Within each bin, translations are partitioned by their flags. That way draws can be restricted
+ * to translations matching a {@link TranslationFilter} without rejecting any.
+ * <p>
+ * When a deck is reloaded, the new Bins {@link #replace(Bins) replace} the current ones, which
+ * then forward answers given through them to their successor.
+ * <p>
+ * By default, draws pick a weighted random bin and a random translation in it. Deployments can
+ * configure a {@link DueTimeScheduler} instead, which picks the translation due first.
  */
 public class Bins {
   private static final Logger LOG = Logger.getLogger("Bins");
 
   /**
-   * Translations in their respective bins.
+   * Translations in their respective bins. Each bin is also the lock guarding its contents.
    */
-  private final List<List<Translation>> mBins;
+  private final List<FlaggedBin> mBins;
   /**
    * Translations keyed by their hash for fast access.
    */
-  private final Map<Long, Translation> mByHash;
+  private final LongObjectMap<Translation> mByHash;
+  /**
+   * Translations keyed by their source word. Each source word can have multiple translations,
+   * which are grouped together with their precomputed TranslationSets.
+   */
+  private final Map<String, TranslationGroup> mBySource;
+  /**
+   * Guards the set of translations: Adding or removing translations, which changes the indexes
+   * above, requires the write lock. Everything else requires the read lock.
+   */
+  private final ReadWriteLock mStructureLock = new ReentrantReadWriteLock();
+  /**
+   * For every flag signature, a bit mask of the bins that currently hold translations with these
+   * flags, bit i representing bin i. A bin's bit is only changed while holding the lock of that
+   * bin.
+   */
+  private final AtomicLongArray mNonEmptyBins =
+      new AtomicLongArray(Translation.NUM_FLAG_SIGNATURES);
   /**
-   * Translations keyed by their source word. Each source word can have multiple translations
+   * See {@link #estimateHeapBytes()}. Guarded by the structure lock.
    */
-  private final Map<String, List<Translation>> mBySource;
+  private long mEstimatedHeapBytes;
+  /**
+   * Set once these Bins were replaced by a reloaded instance, which then receives all answers
+   * and updates. Guarded by the structure lock.
+   */
+  @Nullable
+  private Bins mSuccessor;
   private final DataStoreUpdater mUpdater;
   private final RandomBinPicker mBinPicker;
+  /**
+   * Holds the same translations as the bins, if draws go by due time instead of random bins.
+   */
+  @Nullable
+  private final DueTimeScheduler mScheduler;
+  /**
+   * When the translations were read from the datastore, and the structure version of the deck
+   * before that. Changes made by other instances afterwards are not part of these Bins, so a
+   * snapshot of them must not claim to be any newer.
+   */
+  private final long mLoadedMillis;
+  private final long mLoadedStructureVersion;
 
   /**
-   * Note: Do not just change this number to change the bin number. More instances in the code
-   * need to change to support a different number of bins.
+   * Rough number of bytes a translation occupies, apart from its strings: The object with its
+   * boxed hash and its share of the bins, the hash index and its translation group.
    */
-  private static final int NUM_BINS = 5;
+  private static final int BYTES_PER_TRANSLATION = 200;
 
-  @Nullable
-  private static Bins sInstance;
+  private static final String DURATION_METRIC = "idioma_bins_operation_duration_seconds";
+  private static final String DURATION_HELP = "Time spent in operations on the bins.";
+  private static final Histogram sGetRandomDuration =
+      Metrics.get().latencyHistogram(DURATION_METRIC, DURATION_HELP, "operation", "get_random");
+  private static final Histogram sProcessResponseDuration = Metrics.get().latencyHistogram(
+      DURATION_METRIC, DURATION_HELP, "operation", "process_response");
+  private static final Histogram sApplyUpdatesDuration = Metrics.get().latencyHistogram(
+      DURATION_METRIC, DURATION_HELP, "operation", "apply_updates");
+
+  private static final BinsCache sCache = BinsCache.createDefault();
+
+  static {
+    Metrics.get().gauge("idioma_decks_loaded", "Number of decks held in memory.", new Gauge() {
+      @Override
+      public double getValue() {
+        return sCache.getStatistics().numDecksLoaded;
+      }
+    });
+    Metrics.get().gauge("idioma_translations_loaded", "Number of translations held in memory.",
+        new Gauge() {
+          @Override
+          public double getValue() {
+            return sCache.getStatistics().numTranslationsLoaded;
+          }
+        });
+    Metrics.get().gauge("idioma_decks_heap_bytes",
+        "Estimated heap used by the decks held in memory.", new Gauge() {
+          @Override
+          public double getValue() {
+            return sCache.getStatistics().numBytesEstimated;
+          }
+        });
+    Metrics.get().gauge("idioma_jvm_heap_used_bytes", "Heap used by the whole instance.",
+        new Gauge() {
+          @Override
+          public double getValue() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+          }
+        });
+  }
 
   /**
-   * Returns the singletons Bins instance. Creates the instances, if it is not available yet.
+   * Returns the Bins of the default deck. Loads them, if they are not available yet.
    */
+  @Nullable
   public static Bins getInstance() {
-    if (sInstance == null) {
-      createInstance();
-    }
-    return sInstance;
+    return getInstance(BinsCache.DEFAULT_DECK);
   }
 
-  private static void createInstance() {
-    try {
-      RandomBinPicker binPicker = new RandomBinPicker();
-      sInstance = new TranslationsUtil().getBinnedTranslations(binPicker);
-    } catch (TranslationProvider.TranslationProvidingException e) {
-      sInstance = null;
-      e.printStackTrace();
+  /**
+   * Returns the Bins of the given deck. Loads them, if they are not available yet.
+   *
+   * @return The Bins or null, if they could not be loaded.
+   */
+  @Nullable
+  public static Bins getInstance(String deckId) {
+    return sCache.get(deckId);
+  }
+
+  /**
+   * Call this whenever the datastore of a deck was updated by other means, to ensure we reload
+   * the data in the bins. The reload happens in the background, the current data keeps being
+   * served until it is done.
+   */
+  public static void onDataUpdated(String deckId) {
+    sCache.reload(deckId);
+  }
+
+  /**
+   * Call this after an ingestion was written to the datastore, to apply the same changes to the
+   * loaded bins. If the bins are not loaded yet, there is nothing to do.
+   */
+  static void onDataUpdated(String deckId, IngestionUtil.UpdateResult updates) {
+    Bins instance = sCache.getIfLoaded(deckId);
+    if (instance != null) {
+      instance.applyUpdates(updates);
+      sCache.onSizeChanged(deckId);
     }
+    // Answers for deleted translations must not bring them back.
+    sCache.discard(deckId, updates.toDelete);
+  }
+
+  /**
+   * Drops the loaded bins of the given deck after writing their pending answers, so they are
+   * loaded again on the next access. Answers given through the dropped bins afterwards are
+   * discarded. Call this before the translations of the deck are moved to other IDs.
+   */
+  public static void evict(String deckId) {
+    sCache.evict(deckId);
+  }
+
+  /**
+   * Writes all answers of the given deck that are still pending to the datastore. Call this
+   * before reading translations from the datastore directly.
+   */
+  public static void flushPendingWrites(String deckId) {
+    sCache.flush(deckId);
+  }
+
+  /**
+   * Writes the answers that have been pending for too long. Called at the end of each request,
+   * since answers are not written periodically where there are no background threads.
+   */
+  public static void flushDueWrites() {
+    sCache.flushDueWrites();
+  }
+
+  /**
+   * Call this when the instance is shutting down, to ensure no answers are lost.
+   */
+  public static void onShutdown() {
+    sCache.shutdown();
+  }
+
+  /**
+   * @return Counters about the answers of the given deck written to the datastore.
+   */
+  public static WriteBehindDataStoreUpdater.Statistics getWriteStatistics(String deckId) {
+    return sCache.getWriteStatistics(deckId);
   }
 
   /**
-   * Call this whenever the datastore was updated, to ensure we reload the data in the bins.
+   * @return How many decks and translations are held in memory.
    */
-  public static void onDataUpdated() {
-    createInstance();
+  public static BinsCache.Statistics getCacheStatistics() {
+    return sCache.getStatistics();
   }
 
-  Bins(List<List<Translation>> bins, DataStoreUpdater updater, RandomBinPicker binPicker) {
-    mBins = bins;
+  /**
+   * @return Why the last reload of the given deck failed, or null if it succeeded or there was
+   * none.
+   */
+  @Nullable
+  public static String getReloadError(String deckId) {
+    return sCache.getReloadError(deckId);
+  }
+
+  /**
+   * Creates a new Bins instance, sorting the given translations into their bins.
+   *
+   * @param translations all translations to manage.
+   * @param updater      used to persist changes made to the translations.
+   */
+  public static Bins create(Collection<Translation> translations, DataStoreUpdater updater) {
+    return create(translations, updater, new RandomBinPicker(), System.currentTimeMillis(), 0);
+  }
+
+  /**
+   * @param loadedMillis     when the translations were read from the datastore.
+   * @param structureVersion the structure version of the deck, read before the translations.
+   */
+  static Bins create(Collection<Translation> translations,
+                     DataStoreUpdater updater,
+                     RandomBinPicker binPicker,
+                     long loadedMillis,
+                     long structureVersion) {
+    return new Bins(translations, updater, binPicker,
+        DueTimeScheduler.createConfigured(binPicker.getNumBins()), loadedMillis, structureVersion);
+  }
+
+  private Bins(Collection<Translation> translations,
+               DataStoreUpdater updater,
+               RandomBinPicker binPicker,
+               @Nullable DueTimeScheduler scheduler,
+               long loadedMillis,
+               long structureVersion) {
     mUpdater = updater;
     mBinPicker = binPicker;
+    mScheduler = scheduler;
+    mLoadedMillis = loadedMillis;
+    mLoadedStructureVersion = structureVersion;
 
-    mByHash = new HashMap<>();
+    int numBins = binPicker.getNumBins();
+    mBins = new ArrayList<>(numBins);
+    for (int i = 0; i < numBins; ++i) {
+      mBins.add(new FlaggedBin());
+    }
+    mByHash = new LongObjectMap<>(translations.size());
     mBySource = new HashMap<>();
 
+    Map<String, List<Translation>> bySource = new HashMap<>();
+    for (Translation translation : translations) {
+      addToBinAndHash(translation);
+      List<Translation> withSameSource = bySource.get(translation.source);
+      if (withSameSource == null) {
+        withSameSource = new ArrayList<>(1);
+        bySource.put(translation.source, withSameSource);
+      }
+      withSameSource.add(translation);
+    }
+
     // Just for logging and sanity checking.
     int moreThanOneForSourceCount = 0;
-    for (List<Translation> bin : bins) {
-      for (Translation translation : bin) {
-        // Populate by-hash.
-        mByHash.put(translation.hash, translation);
-
-        // Populate by-source.
-        if (!mBySource.containsKey(translation.source)) {
-          mBySource.put(translation.source, new ArrayList<Translation>());
-        } else {
-          moreThanOneForSourceCount++;
-        }
-        mBySource.get(translation.source).add(translation);
+    for (Map.Entry<String, List<Translation>> entry : bySource.entrySet()) {
+      mBySource.put(entry.getKey(), TranslationGroup.of(entry.getValue()));
+      if (entry.getValue().size() > 1) {
+        moreThanOneForSourceCount++;
       }
     }
     LOG.info(String.format("Found %d sources with >1 translation.", moreThanOneForSourceCount));
   }
 
   /**
-   * Returns a random Translation. Can return null, if there are no translations available.
+   * Returns a random Translation that is not disabled, or the one due first if draws go by due
+   * time. Can return null, if there are no translations available.
    */
   @Nullable
   public TranslationSet getRandom() {
-    int tries = 0;
-    List<Translation> translations;
+    return getRandom(TranslationFilter.ENABLED);
+  }
+
+  /**
+   * Returns a random Translation matching the given filter. Can return null, if there are no
+   * matching translations available.
+   */
+  @Nullable
+  public TranslationSet getRandom(TranslationFilter filter) {
+    long start = System.nanoTime();
+    mStructureLock.readLock().lock();
+    try {
+      return drawNext(filter);
+    } finally {
+      mStructureLock.readLock().unlock();
+      sGetRandomDuration.observeSince(start);
+    }
+  }
+
+  /**
+   * Returns up to the given number of distinct random translations that are not disabled.
+   *
+   * @see #getRandom(int, TranslationFilter)
+   */
+  public List<TranslationSet> getRandom(int count) {
+    return getRandom(count, TranslationFilter.ENABLED);
+  }
+
+  /**
+   * Returns up to the given number of distinct random translations matching the given filter.
+   * Fewer are returned if there are not enough matching translations or the draws keep hitting
+   * the same translations.
+   */
+  public List<TranslationSet> getRandom(int count, TranslationFilter filter) {
+    long start = System.nanoTime();
+    List<TranslationSet> result = new ArrayList<>(count);
+    LongObjectMap<TranslationSet> drawn = new LongObjectMap<>(count);
+    mStructureLock.readLock().lock();
+    try {
+      if (mScheduler != null) {
+        for (Translation translation : mScheduler.getNext(count, filter.getSignatures())) {
+          result.add(mBySource.get(translation.source).getSet(translation));
+        }
+        return result;
+      }
+      for (int tries = 0; result.size() < count && tries < count * 4; ++tries) {
+        TranslationSet set = drawNext(filter);
+        if (set == null) {
+          break;
+        }
+        if (drawn.putIfAbsent(set.mainTranslation.hash, set) == null) {
+          result.add(set);
+        }
+      }
+    } finally {
+      mStructureLock.readLock().unlock();
+      sGetRandomDuration.observeSince(start);
+    }
+    return result;
+  }
+
+  /**
+   * Must be called while holding the read lock.
+   */
+  @Nullable
+  private TranslationSet drawNext(TranslationFilter filter) {
+    Translation translation = null;
+    if (mScheduler != null) {
+      translation = mScheduler.getNext(filter.getSignatures());
+      return translation != null ? mBySource.get(translation.source).getSet(translation) : null;
+    }
     do {
-      // Get a random, non-empty bin.
-      int bin = mBinPicker.getRandomBin();
-      translations = mBins.get(bin);
-      if (++tries > 100) {
+      // Only bins with matching translations are picked. The bin can only turn out to have none
+      // if the last one was moved away concurrently, in which case we simply pick again.
+      long binsWithMatches = 0;
+      for (int signature : filter.getSignatures()) {
+        binsWithMatches |= mNonEmptyBins.get(signature);
+      }
+      int bin = mBinPicker.getRandomBin(binsWithMatches);
+      if (bin < 0) {
         return null;
       }
-    } while (translations.size() <= 0);
+      FlaggedBin translations = mBins.get(bin);
+      synchronized (translations) {
+        translation = translations.getRandom(filter, ThreadLocalRandom.current());
+      }
+    } while (translation == null);
 
-    // Get a random item from the bin.
-    int itemIdx = (new Random()).nextInt(translations.size());
-    Translation translation = translations.get(itemIdx);
-    return TranslationSet.from(translation, mBySource.get(translation.source));
+    return mBySource.get(translation.source).getSet(translation);
   }
 
   /**
    * Processes a response by the user.
    */
   public void processResponse(long hash, boolean correct) {
-    LOG.info("Hash: " + hash + " correct: " + correct);
-    Translation translation = mByHash.get(hash);
+    LOG.fine("Hash: " + hash + " correct: " + correct);
+    long start = System.nanoTime();
+    Translation translation;
+    Bins successor;
+    mStructureLock.readLock().lock();
+    try {
+      successor = mSuccessor;
+      translation = successor == null ? mByHash.get(hash) : null;
+      if (translation != null && !moveAfterResponse(translation, correct)) {
+        return;
+      }
+    } finally {
+      mStructureLock.readLock().unlock();
+    }
+    if (successor != null) {
+      // These Bins were replaced by reloaded ones while the answer was given.
+      successor.processResponse(hash, correct);
+      return;
+    }
     if (translation == null) {
       LOG.severe("Could not found translation: " + hash);
       return;
     }
+    mUpdater.persist(Collections.singleton(translation));
+    sProcessResponseDuration.observeSince(start);
+  }
+
+  /**
+   * Processes several responses by the user in the given order. All changed translations are
+   * handed to the updater at once.
+   *
+   * @return The number of responses that were processed. Responses for translations that do not
+   * exist (anymore) are skipped.
+   */
+  public int processResponses(List<Response> responses) {
+    // A translation answered several times only needs to be written once.
+    long start = System.nanoTime();
+    Set<Translation> changed = new LinkedHashSet<>();
+    int numProcessed = 0;
+    Bins successor;
+    mStructureLock.readLock().lock();
+    try {
+      successor = mSuccessor;
+      if (successor == null) {
+        for (Response response : responses) {
+          Translation translation = mByHash.get(response.hash);
+          if (translation == null) {
+            LOG.warning("Could not found translation: " + response.hash);
+            continue;
+          }
+          if (moveAfterResponse(translation, response.correct)) {
+            changed.add(translation);
+            numProcessed++;
+          }
+        }
+      }
+    } finally {
+      mStructureLock.readLock().unlock();
+    }
+    if (successor != null) {
+      // These Bins were replaced by reloaded ones while the answers were given.
+      return successor.processResponses(responses);
+    }
+    if (!changed.isEmpty()) {
+      mUpdater.persist(changed);
+    }
+    sProcessResponseDuration.observeSince(start);
+    LOG.fine(String.format("Processed %d of %d responses.", numProcessed, responses.size()));
+    return numProcessed;
+  }
 
-    if (!mBins.get(translation.bin).remove(translation)) {
-      LOG.severe(String.format("The translation for %s was not found in bin #%d.",
-          translation.source, translation.bin));
+  /**
+   * Moves the translation to the bin it belongs to after the given response and updates its
+   * counters. Must be called while holding the read lock.
+   *
+   * @return Whether the translation was moved.
+   */
+  private boolean moveAfterResponse(Translation translation, boolean correct) {
+    while (true) {
+      // The bin might change concurrently until we hold its lock. Always acquire the locks of
+      // the lower bin first, so two moves in opposite directions cannot deadlock.
+      int fromBin = translation.bin;
+      int toBin = !correct ? 0 : Math.min(fromBin + 1, mBins.size() - 1);
+      FlaggedBin first = mBins.get(Math.min(fromBin, toBin));
+      FlaggedBin second = mBins.get(Math.max(fromBin, toBin));
+      synchronized (first) {
+        synchronized (second) {
+          if (translation.bin != fromBin) {
+            continue;
+          }
+          if (!removeFromBin(fromBin, translation)) {
+            LOG.severe(String.format("The translation for %s was not found in bin #%d.",
+                translation.source, fromBin));
+            return false;
+          }
+          translation.bin = toBin;
+          translation.lastAnsweredMillis = System.currentTimeMillis();
+          if (correct) {
+            translation.numRepliesCorrect++;
+          } else {
+            translation.numRepliesIncorrect++;
+          }
+          addToBin(toBin, translation);
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the result of an ingestion to the translations held in memory, so that they match
+   * the datastore again without reloading everything.
+   */
+  void applyUpdates(IngestionUtil.UpdateResult updates) {
+    long start = System.nanoTime();
+    List<Translation> liveUpdated = new ArrayList<>(updates.toUpdate.size());
+    Bins successor;
+    mStructureLock.writeLock().lock();
+    try {
+      successor = mSuccessor;
+      if (successor == null) {
+        for (Translation deleted : updates.toDelete) {
+          Translation translation = mByHash.remove(deleted.hash);
+          if (translation != null) {
+            removeFromBin(translation.bin, translation);
+            removeFromSource(translation);
+            mEstimatedHeapBytes -= estimateHeapBytes(translation);
+          }
+        }
+        for (Translation added : updates.toAdd) {
+          if (mByHash.get(added.hash) == null) {
+            addTranslation(added);
+          }
+        }
+        for (Translation updated : updates.toUpdate) {
+          Translation translation = mByHash.get(updated.hash);
+          if (translation != null) {
+            // The flags determine the partition of the bin, so move the translation over.
+            removeFromBin(translation.bin, translation);
+            translation.updateFromIngested(updated);
+            addToBin(translation.bin, translation);
+            liveUpdated.add(translation);
+          } else {
+            LOG.warning("Updated translation not found in bins: " + updated.hash);
+          }
+        }
+      }
+    } finally {
+      mStructureLock.writeLock().unlock();
+    }
+    if (successor != null) {
+      // These Bins were replaced by reloaded ones in the meantime.
+      successor.applyUpdates(updates);
       return;
     }
-    if (!correct) {
-      translation.bin = 0;
-      translation.numRepliesIncorrect++;
-    } else if (translation.bin < 4) {
-      translation.bin += 1;
-      translation.numRepliesCorrect++;
+    // The ingestion wrote the updated flags from its own copies of the translations. Write them
+    // again from ours, in case answers came in after the ingestion read the datastore.
+    mUpdater.persist(liveUpdated);
+    sApplyUpdatesDuration.observeSince(start);
+    LOG.info(String.format("Applied updates to bins. Deleted: %d, added: %d, updated: %d.",
+        updates.toDelete.size(), updates.toAdd.size(), updates.toUpdate.size()));
+  }
+
+  /**
+   * Replaces the given Bins by these freshly loaded ones: The bins and counters of all
+   * translations are taken over, since answers given to the previous Bins might not have reached
+   * the datastore when these were loaded. Afterwards, the previous Bins forward all answers and
+   * updates to these.
+   * <p>
+   * Must be called before these Bins are handed out.
+   */
+  void replace(Bins previous) {
+    previous.mStructureLock.writeLock().lock();
+    mStructureLock.writeLock().lock();
+    try {
+      int numTakenOver = 0;
+      for (int slot = 0; slot < previous.mByHash.capacity(); ++slot) {
+        Translation old = previous.mByHash.valueAt(slot);
+        Translation translation = old != null ? mByHash.get(old.hash) : null;
+        if (translation == null || (translation.bin == old.bin &&
+            translation.numRepliesCorrect == old.numRepliesCorrect &&
+            translation.numRepliesIncorrect == old.numRepliesIncorrect &&
+            translation.lastAnsweredMillis == old.lastAnsweredMillis)) {
+          continue;
+        }
+        removeFromBin(translation.bin, translation);
+        translation.bin = Math.min(old.bin, mBins.size() - 1);
+        translation.numRepliesCorrect = old.numRepliesCorrect;
+        translation.numRepliesIncorrect = old.numRepliesIncorrect;
+        translation.lastAnsweredMillis = old.lastAnsweredMillis;
+        addToBin(translation.bin, translation);
+        numTakenOver++;
+      }
+      previous.mSuccessor = this;
+      LOG.info(String.format("Took over %d answered translations from the previous bins.",
+          numTakenOver));
+    } finally {
+      mStructureLock.writeLock().unlock();
+      previous.mStructureLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Adds the translation to its bin and indexes. Must be called while holding the write lock.
+   */
+  private void addTranslation(Translation translation) {
+    addToBinAndHash(translation);
+    TranslationGroup withSameSource = mBySource.get(translation.source);
+    mBySource.put(translation.source, withSameSource != null ?
+        withSameSource.with(translation) :
+        TranslationGroup.of(Collections.singletonList(translation)));
+  }
+
+  /**
+   * Must be called while holding the write lock or during construction.
+   */
+  private void addToBinAndHash(Translation translation) {
+    if (translation.bin < 0 || translation.bin >= mBins.size()) {
+      // The number of bins was configured differently when this translation was answered.
+      int bin = Math.max(0, Math.min(translation.bin, mBins.size() - 1));
+      LOG.warning(String.format("Moving %s from bin #%d to #%d.",
+          translation.source, translation.bin, bin));
+      translation.bin = bin;
     }
+    addToBin(translation.bin, translation);
+    mByHash.put(translation.hash, translation);
+    mEstimatedHeapBytes += estimateHeapBytes(translation);
+  }
 
-    mBins.get(translation.bin).add(translation);
-    mUpdater.persist(Collections.singleton(translation));
+  /**
+   * Must be called while holding the lock of the bin or the write lock.
+   */
+  private void addToBin(int bin, Translation translation) {
+    FlaggedBin flaggedBin = mBins.get(bin);
+    flaggedBin.add(translation);
+    if (mScheduler != null) {
+      // Rescheduled by the bin and last answer the translation was added with.
+      mScheduler.add(translation);
+    }
+    int signature = translation.getFlagSignature();
+    if (flaggedBin.size(signature) == 1) {
+      updateNonEmptyBins(signature, bin, true);
+    }
+  }
+
+  /**
+   * Must be called while holding the lock of the bin or the write lock.
+   *
+   * @return Whether the translation was in the bin.
+   */
+  private boolean removeFromBin(int bin, Translation translation) {
+    FlaggedBin flaggedBin = mBins.get(bin);
+    if (!flaggedBin.remove(translation)) {
+      return false;
+    }
+    if (mScheduler != null) {
+      mScheduler.remove(translation);
+    }
+    int signature = translation.getFlagSignature();
+    if (flaggedBin.size(signature) == 0) {
+      updateNonEmptyBins(signature, bin, false);
+    }
+    return true;
+  }
+
+  private void updateNonEmptyBins(int signature, int bin, boolean nonEmpty) {
+    long bit = 1L << bin;
+    while (true) {
+      long current = mNonEmptyBins.get(signature);
+      long updated = nonEmpty ? current | bit : current & ~bit;
+      if (mNonEmptyBins.compareAndSet(signature, current, updated)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Must be called while holding the write lock.
+   */
+  private void removeFromSource(Translation translation) {
+    TranslationGroup withSameSource = mBySource.get(translation.source);
+    if (withSameSource != null) {
+      TranslationGroup remaining = withSameSource.without(translation);
+      if (remaining != null) {
+        mBySource.put(translation.source, remaining);
+      } else {
+        mBySource.remove(translation.source);
+      }
+    }
+  }
+
+  /**
+   * @return The number of translations in the bins.
+   */
+  public int size() {
+    mStructureLock.readLock().lock();
+    try {
+      return mByHash.size();
+    } finally {
+      mStructureLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return When the translations were read from the datastore.
+   */
+  long getLoadedMillis() {
+    return mLoadedMillis;
+  }
+
+  /**
+   * @return The structure version of the deck when its translations were read.
+   */
+  long getLoadedStructureVersion() {
+    return mLoadedStructureVersion;
+  }
+
+  /**
+   * @return Copies of all translations in the bins, e.g. to store a snapshot of them.
+   */
+  List<Translation> copyTranslations() {
+    // The write lock keeps answers from moving translations between bins while copying them.
+    mStructureLock.writeLock().lock();
+    try {
+      List<Translation> copies = new ArrayList<>(mByHash.size());
+      for (FlaggedBin bin : mBins) {
+        bin.addCopiesTo(copies);
+      }
+      return copies;
+    } finally {
+      mStructureLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return A rough estimate of the heap used by the translations in the bins and the indexes.
+   */
+  public long estimateHeapBytes() {
+    mStructureLock.readLock().lock();
+    try {
+      return mEstimatedHeapBytes;
+    } finally {
+      mStructureLock.readLock().unlock();
+    }
+  }
+
+  private static long estimateHeapBytes(Translation translation) {
+    return BYTES_PER_TRANSLATION + estimateHeapBytes(translation.source) +
+        estimateHeapBytes(translation.translated) + estimateHeapBytes(translation.note);
+  }
+
+  private static long estimateHeapBytes(@Nullable String string) {
+    // Object header, fields and the character array.
+    return string != null ? 40 + 2L * string.length() : 0;
   }
 
   /**
    * @return Statistics about the current data in the bins.
    */
   public Statistics getStatistics() {
-    Statistics stats = new Statistics();
-    for (int i = 0; i < NUM_BINS; ++i) {
-      stats.numItemsInBin[i] = mBins.get(i).size();
+    Statistics stats = new Statistics(mBins.size());
+    mStructureLock.readLock().lock();
+    try {
+      for (int i = 0; i < mBins.size(); ++i) {
+        FlaggedBin bin = mBins.get(i);
+        synchronized (bin) {
+          stats.numItemsInBin[i] = bin.size();
+        }
+      }
+    } finally {
+      mStructureLock.readLock().unlock();
     }
     return stats;
   }
 
+  /**
+   * A user's response to a translation.
+   */
+  public static class Response {
+    public final long hash;
+    public final boolean correct;
+
+    public Response(long hash, boolean correct) {
+      this.hash = hash;
+      this.correct = correct;
+    }
+  }
+
   public static class Statistics {
-    public int[] numItemsInBin = new int[NUM_BINS];
+    public final int[] numItemsInBin;
+
+    Statistics(int numBins) {
+      numItemsInBin = new int[numBins];
+    }
   }
-}
\ No newline at end of file
+}
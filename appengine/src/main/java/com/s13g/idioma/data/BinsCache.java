@@ -0,0 +1,706 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import com.s13g.idioma.data.TranslationProvider.TranslationProvidingException;
+import com.s13g.idioma.metrics.Counter;
+import com.s13g.idioma.metrics.Histogram;
+import com.s13g.idioma.metrics.Metrics;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the Bins of multiple decks in memory. Decks are loaded on demand and the least recently
+ * used ones are evicted once the total number of translations held exceeds the limit. The total
+ * is kept up to date as decks are loaded and evicted, so serving a loaded deck only checks it.
+ * Pending answers of an evicted deck are written to the datastore on eviction, in the background
+ * if possible.
+ * <p>
+ * Loaded decks are reloaded in the background. The current Bins keep being served until the
+ * reloaded ones are complete and then get replaced in one step. If reloading fails, the current
+ * Bins are kept.
+ * <p>
+ * Every deck lives in its own datastore namespace, named after the deck ID.
+ */
+public class BinsCache {
+  private static final Logger LOG = Logger.getLogger("BinsCache");
+
+  /**
+   * The deck used when no user is known, which lives in the default namespace.
+   */
+  public static final String DEFAULT_DECK = "";
+
+  /**
+   * Loads the translations of a deck.
+   */
+  interface Loader {
+    Bins load(String deckId, DataStoreUpdater updater) throws TranslationProvidingException;
+
+    /**
+     * Called when the Bins of a deck are dropped from memory, after all their answers were
+     * written, so they can be loaded faster next time.
+     */
+    void saveSnapshot(String deckId, Bins bins);
+  }
+
+  /**
+   * Number of pending answers that triggers a write to the datastore.
+   */
+  private static final int WRITE_BATCH_SIZE = Integer.getInteger("idioma.write.batchSize", 20);
+  /**
+   * Maximum time in milliseconds answers are kept pending before they are written.
+   */
+  private static final long WRITE_FLUSH_INTERVAL_MS =
+      Long.getLong("idioma.write.flushIntervalMs", 15000);
+  /**
+   * Maximum number of translations held in memory, summed over all loaded decks.
+   */
+  private static final int MAX_TRANSLATIONS =
+      Integer.getInteger("idioma.cache.maxTranslations", 500000);
+
+  private static final Histogram sLoadDuration = Metrics.get().latencyHistogram(
+      "idioma_deck_load_duration_seconds", "Time spent loading decks into memory.");
+  private static final Counter sEvictions = Metrics.get().counter(
+      "idioma_deck_evictions_total", "Number of decks evicted from memory.");
+  private static final String RELOADS_METRIC = "idioma_deck_reloads_total";
+  private static final String RELOADS_HELP = "Number of decks reloaded in the background.";
+  private static final Counter sReloadsSucceeded =
+      Metrics.get().counter(RELOADS_METRIC, RELOADS_HELP, "result", "success");
+  private static final Counter sReloadsFailed =
+      Metrics.get().counter(RELOADS_METRIC, RELOADS_HELP, "result", "failure");
+
+  private final Loader mLoader;
+  private final int mMaxTranslations;
+  /**
+   * The decks, in access order. Guarded by this.
+   */
+  private final LinkedHashMap<String, Deck> mDecks = new LinkedHashMap<>(16, 0.75f, true);
+  /**
+   * Evicted decks whose answers are still being written, by deck ID. Guarded by this.
+   */
+  private final Map<String, Deck> mEvicting = new HashMap<>();
+  /**
+   * The number of translations of the decks in mDecks, as last counted. Guarded by this.
+   */
+  private int mNumTranslations;
+  @Nullable
+  private ScheduledExecutorService mFlushScheduler;
+  private boolean mFlushSchedulerCreated;
+  /**
+   * Runs reloads and writes back evicted decks.
+   */
+  @Nullable
+  private ExecutorService mBackgroundExecutor;
+  private boolean mBackgroundExecutorCreated;
+
+  BinsCache(Loader loader, int maxTranslations) {
+    mLoader = loader;
+    mMaxTranslations = maxTranslations;
+  }
+
+  /**
+   * @return A cache that loads decks from the datastore.
+   */
+  static BinsCache createDefault() {
+    return new BinsCache(new Loader() {
+      @Override
+      public Bins load(String deckId, DataStoreUpdater updater)
+          throws TranslationProvidingException {
+        return new TranslationsUtil(deckId).getBinnedTranslations(new RandomBinPicker(), updater);
+      }
+
+      @Override
+      public void saveSnapshot(String deckId, Bins bins) {
+        new TranslationsUtil(deckId).saveSnapshot(bins);
+      }
+    }, MAX_TRANSLATIONS);
+  }
+
+  /**
+   * Returns the Bins of the given deck, loading them if necessary.
+   *
+   * @return The Bins or null, if they could not be loaded.
+   */
+  @Nullable
+  Bins get(String deckId) {
+    Deck deck;
+    boolean overLimit;
+    synchronized (this) {
+      deck = getOrCreateDeck(deckId);
+      overLimit = mNumTranslations > mMaxTranslations;
+    }
+    Bins bins = deck.bins;
+    if (bins != null) {
+      // Served without locking the deck, so requests do not wait for a reload in progress.
+      if (overLimit) {
+        evictIfNecessaryAndWriteBack(deckId);
+      }
+      return bins;
+    }
+    synchronized (deck) {
+      if (deck.bins == null) {
+        // Make sure the loaded data contains all answers given so far.
+        awaitEviction(deckId);
+        deck.updater.flush();
+        long start = System.nanoTime();
+        try {
+          deck.bins = mLoader.load(deckId, deck.updater);
+        } catch (TranslationProvidingException e) {
+          LOG.log(Level.SEVERE, "Cannot load deck '" + deckId + "'.", e);
+          return null;
+        } finally {
+          sLoadDuration.observeSince(start);
+        }
+        LOG.info(String.format("Loaded deck '%s' with %d translations.",
+            deckId, deck.bins.size()));
+      }
+      bins = deck.bins;
+    }
+    if (updateCount(deckId, deck)) {
+      evictIfNecessaryAndWriteBack(deckId);
+    }
+    return bins;
+  }
+
+  /**
+   * Evicts decks if the limit is exceeded, and writes their answers and snapshots in the
+   * background. Without background threads, only their answers are written, on the calling
+   * thread. That is at most a batch per deck. The snapshots taken when they were loaded stay
+   * valid, since answers written afterwards are read as modified translations.
+   */
+  private void evictIfNecessaryAndWriteBack(String currentDeckId) {
+    final Map<String, Deck> evicted = evictIfNecessary(currentDeckId);
+    if (evicted.isEmpty()) {
+      return;
+    }
+    ExecutorService executor;
+    synchronized (this) {
+      executor = getBackgroundExecutor();
+    }
+    if (executor != null) {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            // Background threads are not covered by the ObjectifyFilter.
+            try (Closeable ignored = ObjectifyService.begin()) {
+              writeBack(evicted, true);
+            }
+          }
+        });
+        return;
+      } catch (RuntimeException ex) {
+        LOG.log(Level.WARNING, "Cannot write back evicted decks in the background.", ex);
+        dropBackgroundExecutor(executor);
+      }
+    }
+    writeBack(evicted, false);
+  }
+
+  /**
+   * Writes the pending answers of the given evicted decks and optionally stores snapshots of
+   * them.
+   */
+  private void writeBack(Map<String, Deck> evicted, boolean saveSnapshots) {
+    for (Map.Entry<String, Deck> entry : evicted.entrySet()) {
+      String deckId = entry.getKey();
+      Deck deck = entry.getValue();
+      // Loading the deck again waits for this lock, so it sees all answers written.
+      synchronized (deck) {
+        try {
+          deck.updater.shutdown();
+        } finally {
+          synchronized (this) {
+            mEvicting.remove(deckId);
+          }
+        }
+        Bins bins = deck.bins;
+        if (saveSnapshots && bins != null) {
+          mLoader.saveSnapshot(deckId, bins);
+        }
+      }
+    }
+  }
+
+  /**
+   * Updates the running count of translations after the Bins of the given deck were loaded,
+   * replaced or changed in size. Decks that were evicted meanwhile are not counted.
+   *
+   * @return Whether the limit is exceeded.
+   */
+  private boolean updateCount(String deckId, Deck deck) {
+    // Counted without holding the lock, since it waits for changes to the Bins.
+    Bins bins = deck.bins;
+    int size = bins != null ? bins.size() : 0;
+    synchronized (this) {
+      if (mDecks.get(deckId) == deck) {
+        mNumTranslations += size - deck.numCounted;
+        deck.numCounted = size;
+      }
+      return mNumTranslations > mMaxTranslations;
+    }
+  }
+
+  /**
+   * Called when the number of translations of the given deck changed, e.g. by an ingestion.
+   */
+  void onSizeChanged(String deckId) {
+    Deck deck;
+    synchronized (this) {
+      deck = mDecks.get(deckId);
+    }
+    if (deck != null && updateCount(deckId, deck)) {
+      evictIfNecessaryAndWriteBack(deckId);
+    }
+  }
+
+  /**
+   * Removes the given deck from the decks and the count. Must be called while holding the lock.
+   */
+  @Nullable
+  private Deck unlink(String deckId) {
+    Deck deck = mDecks.remove(deckId);
+    if (deck != null) {
+      mNumTranslations -= deck.numCounted;
+      deck.numCounted = 0;
+    }
+    return deck;
+  }
+
+  /**
+   * Waits until the answers of the given deck are written, in case it was just evicted.
+   */
+  private void awaitEviction(String deckId) {
+    Deck evicted;
+    synchronized (this) {
+      evicted = mEvicting.get(deckId);
+    }
+    if (evicted != null) {
+      synchronized (evicted) {
+        // Does the eviction's write, unless it already happened.
+        evicted.updater.flush();
+      }
+    }
+  }
+
+  /**
+   * @return The Bins of the given deck, if they are currently loaded.
+   */
+  @Nullable
+  synchronized Bins getIfLoaded(String deckId) {
+    Deck deck = mDecks.get(deckId);
+    return deck != null ? deck.bins : null;
+  }
+
+  /**
+   * Drops the loaded Bins of the given deck, so that they are loaded again on the next access.
+   */
+  void invalidate(String deckId) {
+    Deck deck;
+    synchronized (this) {
+      deck = mDecks.get(deckId);
+    }
+    if (deck != null) {
+      synchronized (deck) {
+        deck.bins = null;
+      }
+      updateCount(deckId, deck);
+    }
+  }
+
+  /**
+   * Drops the given deck, after writing its pending answers. Answers given through its Bins
+   * afterwards are discarded, since they might refer to translations that no longer exist.
+   */
+  void evict(String deckId) {
+    Deck deck;
+    synchronized (this) {
+      deck = unlink(deckId);
+    }
+    awaitEviction(deckId);
+    if (deck != null) {
+      synchronized (deck) {
+        deck.bins = null;
+        deck.updater.close();
+      }
+      LOG.info(String.format("Dropped deck '%s'.", deckId));
+    }
+  }
+
+  /**
+   * Reloads the Bins of the given deck in the background, if they are loaded. Until the reload
+   * is done, the current Bins are served. Requests made while a reload is running cause one more
+   * reload afterwards.
+   */
+  void reload(final String deckId) {
+    final Deck deck;
+    ExecutorService executor;
+    synchronized (this) {
+      deck = mDecks.get(deckId);
+      executor = getBackgroundExecutor();
+    }
+    if (deck == null) {
+      return;
+    }
+    synchronized (deck) {
+      if (deck.bins == null) {
+        // Not loaded yet, the next access loads the current data anyway.
+        return;
+      }
+      if (deck.reloading) {
+        deck.reloadAgain = true;
+        return;
+      }
+      deck.reloading = true;
+    }
+    Runnable reload = new Runnable() {
+      @Override
+      public void run() {
+        boolean again = true;
+        while (again) {
+          try {
+            // Background threads are not covered by the ObjectifyFilter.
+            try (Closeable ignored = ObjectifyService.begin()) {
+              reloadNow(deckId, deck);
+            }
+          } finally {
+            synchronized (deck) {
+              again = deck.reloadAgain;
+              deck.reloadAgain = false;
+              deck.reloading = again;
+            }
+          }
+        }
+      }
+    };
+    if (executor != null) {
+      try {
+        executor.execute(reload);
+        return;
+      } catch (RuntimeException ex) {
+        LOG.log(Level.WARNING, "Cannot reload in the background.", ex);
+        dropBackgroundExecutor(executor);
+      }
+    }
+    // Without background threads, the caller pays for the reload. Requests still get served
+    // from the current Bins meanwhile. The reload resets the reloading flag when done.
+    reload.run();
+  }
+
+  /**
+   * Loads the Bins of the given deck and replaces the current ones with them.
+   */
+  private void reloadNow(String deckId, Deck deck) {
+    long start = System.nanoTime();
+    Bins reloaded;
+    try {
+      deck.updater.flush();
+      reloaded = mLoader.load(deckId, deck.updater);
+    } catch (TranslationProvidingException | RuntimeException e) {
+      LOG.log(Level.SEVERE, "Cannot reload deck '" + deckId + "', keeping the current data.", e);
+      synchronized (deck) {
+        deck.reloadError = e.toString();
+      }
+      sReloadsFailed.increment();
+      return;
+    } finally {
+      sLoadDuration.observeSince(start);
+    }
+    synchronized (this) {
+      if (mDecks.get(deckId) != deck) {
+        // Evicted in the meantime.
+        return;
+      }
+    }
+    synchronized (deck) {
+      Bins current = deck.bins;
+      if (current == null) {
+        // Invalidated in the meantime, the next access loads the current data.
+        return;
+      }
+      reloaded.replace(current);
+      deck.bins = reloaded;
+      deck.reloadError = null;
+    }
+    sReloadsSucceeded.increment();
+    LOG.info(String.format("Reloaded deck '%s' with %d translations.",
+        deckId, reloaded.size()));
+    if (updateCount(deckId, deck)) {
+      evictIfNecessaryAndWriteBack(deckId);
+    }
+  }
+
+  /**
+   * @return Why the last reload of the given deck failed, or null if it succeeded or there was
+   * none.
+   */
+  @Nullable
+  String getReloadError(String deckId) {
+    Deck deck;
+    synchronized (this) {
+      deck = mDecks.get(deckId);
+    }
+    if (deck == null) {
+      return null;
+    }
+    synchronized (deck) {
+      return deck.reloadError;
+    }
+  }
+
+  /**
+   * @return The updater through which the given deck persists answers, or null if the deck was
+   * never accessed. Does not create the deck, since only loading a deck makes it evictable.
+   */
+  @Nullable
+  private synchronized WriteBehindDataStoreUpdater getUpdaterIfExists(String deckId) {
+    Deck deck = mDecks.get(deckId);
+    return deck != null ? deck.updater : null;
+  }
+
+  /**
+   * @return Counters about the answers of the given deck written to the datastore, empty if the
+   * deck was never accessed.
+   */
+  WriteBehindDataStoreUpdater.Statistics getWriteStatistics(String deckId) {
+    WriteBehindDataStoreUpdater updater = getUpdaterIfExists(deckId);
+    return updater != null ? updater.getStatistics() : new WriteBehindDataStoreUpdater.Statistics();
+  }
+
+  /**
+   * Drops pending answers of the given translations, e.g. because they were removed.
+   */
+  void discard(String deckId, Collection<Translation> translations) {
+    WriteBehindDataStoreUpdater updater = getUpdaterIfExists(deckId);
+    if (updater != null) {
+      updater.discard(translations);
+    }
+  }
+
+  /**
+   * Writes all pending answers of the given deck, including those of a just evicted instance.
+   */
+  void flush(String deckId) {
+    awaitEviction(deckId);
+    WriteBehindDataStoreUpdater updater = getUpdaterIfExists(deckId);
+    if (updater != null) {
+      updater.flush();
+    }
+  }
+
+  /**
+   * Writes the pending answers that are due, unless a scheduler does so periodically. Without
+   * one, answers would only be written by later answers to the same deck, so this is called at
+   * the end of each request.
+   */
+  void flushDueWrites() {
+    List<WriteBehindDataStoreUpdater> updaters;
+    synchronized (this) {
+      if (mFlushScheduler != null) {
+        return;
+      }
+      updaters = new ArrayList<>(mDecks.size());
+      for (Deck deck : mDecks.values()) {
+        updaters.add(deck.updater);
+      }
+    }
+    for (WriteBehindDataStoreUpdater updater : updaters) {
+      try {
+        updater.flushIfDue();
+      } catch (RuntimeException ex) {
+        // The answers stay pending for the next flush.
+        LOG.log(Level.SEVERE, "Cannot write due answers.", ex);
+      }
+    }
+  }
+
+  /**
+   * Writes all pending answers of all decks, stores snapshots of the loaded ones and stops
+   * periodic flushing.
+   */
+  void shutdown() {
+    Map<String, Deck> decks;
+    synchronized (this) {
+      // Evicted decks might still wait for the background executor to write them back.
+      decks = new LinkedHashMap<>(mEvicting);
+      decks.putAll(mDecks);
+      mDecks.clear();
+      mNumTranslations = 0;
+      if (mFlushScheduler != null) {
+        mFlushScheduler.shutdown();
+      }
+      if (mBackgroundExecutor != null) {
+        mBackgroundExecutor.shutdownNow();
+      }
+    }
+    for (Deck deck : decks.values()) {
+      deck.updater.shutdown();
+    }
+    for (Map.Entry<String, Deck> entry : decks.entrySet()) {
+      Bins bins = entry.getValue().bins;
+      if (bins != null) {
+        mLoader.saveSnapshot(entry.getKey(), bins);
+      }
+    }
+  }
+
+  /**
+   * @return How many decks are loaded and how many translations they hold.
+   */
+  synchronized Statistics getStatistics() {
+    Statistics stats = new Statistics();
+    for (Deck deck : mDecks.values()) {
+      Bins bins = deck.bins;
+      if (bins != null) {
+        stats.numDecksLoaded++;
+        stats.numTranslationsLoaded += bins.size();
+        stats.numBytesEstimated += bins.estimateHeapBytes();
+      }
+    }
+    stats.maxTranslations = mMaxTranslations;
+    return stats;
+  }
+
+  /**
+   * Must be called while holding the lock.
+   */
+  private Deck getOrCreateDeck(String deckId) {
+    Deck deck = mDecks.get(deckId);
+    if (deck == null) {
+      deck = new Deck(new WriteBehindDataStoreUpdater(new TranslationsUtil(deckId),
+          WRITE_BATCH_SIZE, WRITE_FLUSH_INTERVAL_MS, getFlushScheduler()));
+      mDecks.put(deckId, deck);
+    }
+    return deck;
+  }
+
+  /**
+   * Evicts the least recently used decks until the loaded translations fit the limit again. The
+   * deck that was just accessed is never evicted, even if it alone exceeds the limit.
+   *
+   * Evicted decks are only unlinked here, the caller writes their answers without holding the
+   * lock. Until then, they are kept in mEvicting.
+   *
+   * @return The evicted decks, by deck ID.
+   */
+  private synchronized Map<String, Deck> evictIfNecessary(String currentDeckId) {
+    Map<String, Deck> evicted = new LinkedHashMap<>();
+    Iterator<Map.Entry<String, Deck>> it = mDecks.entrySet().iterator();
+    while (mNumTranslations > mMaxTranslations && it.hasNext()) {
+      Map.Entry<String, Deck> entry = it.next();
+      if (entry.getKey().equals(currentDeckId)) {
+        continue;
+      }
+      Deck deck = entry.getValue();
+      if (deck.bins == null) {
+        // Not loaded (yet), so it does not take up any space.
+        continue;
+      }
+      it.remove();
+      mNumTranslations -= deck.numCounted;
+      LOG.info(String.format("Evicted deck '%s' with %d translations.",
+          entry.getKey(), deck.numCounted));
+      deck.numCounted = 0;
+      mEvicting.put(entry.getKey(), deck);
+      sEvictions.increment();
+      evicted.put(entry.getKey(), deck);
+    }
+    return evicted;
+  }
+
+  /**
+   * Must be called while holding the lock.
+   */
+  @Nullable
+  private ScheduledExecutorService getFlushScheduler() {
+    if (!mFlushSchedulerCreated) {
+      mFlushSchedulerCreated = true;
+      mFlushScheduler = BackgroundThreads.newSingleThreadScheduledExecutor();
+    }
+    return mFlushScheduler;
+  }
+
+  /**
+   * Must be called while holding the lock.
+   */
+  @Nullable
+  private ExecutorService getBackgroundExecutor() {
+    if (!mBackgroundExecutorCreated) {
+      mBackgroundExecutorCreated = true;
+      mBackgroundExecutor = BackgroundThreads.newSingleThreadExecutor();
+    }
+    return mBackgroundExecutor;
+  }
+
+  /**
+   * Stops using the given background executor, since it cannot run tasks. Its work runs on the
+   * calling thread from then on.
+   */
+  private synchronized void dropBackgroundExecutor(ExecutorService executor) {
+    if (mBackgroundExecutor == executor) {
+      mBackgroundExecutor = null;
+      executor.shutdownNow();
+    }
+  }
+
+  private static class Deck {
+    final WriteBehindDataStoreUpdater updater;
+    /**
+     * Null until loaded. Written while holding the deck's lock.
+     */
+    @Nullable
+    volatile Bins bins;
+    /**
+     * The following fields are guarded by the deck's lock.
+     */
+    boolean reloading;
+    boolean reloadAgain;
+    @Nullable
+    String reloadError;
+    /**
+     * The number of translations counted in mNumTranslations. Guarded by the cache's lock.
+     */
+    int numCounted;
+
+    Deck(WriteBehindDataStoreUpdater updater) {
+      this.updater = updater;
+    }
+  }
+
+  public static class Statistics {
+    public int numDecksLoaded;
+    public int numTranslationsLoaded;
+    public int maxTranslations;
+    /**
+     * A rough estimate of the heap used by the loaded decks.
+     */
+    public long numBytesEstimated;
+  }
+}
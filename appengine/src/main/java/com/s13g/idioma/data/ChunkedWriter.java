@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.Result;
+import com.s13g.idioma.metrics.Counter;
+import com.s13g.idioma.metrics.Metrics;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Writes translations to the datastore in chunks the datastore accepts in a single call. Chunks
+ * are written asynchronously, with a bounded number of them in flight at a time. Chunks failing
+ * with transient errors are retried with exponential backoff.
+ * <p>
+ * Must be used inside the namespace of the deck.
+ */
+class ChunkedWriter {
+  private static final Logger LOG = Logger.getLogger("ChunkedWriter");
+
+  /**
+   * The maximum number of entities the datastore accepts in one batch call.
+   */
+  private static final int CHUNK_SIZE = Integer.getInteger("idioma.write.chunkSize", 500);
+  /**
+   * The maximum number of chunks being written at the same time.
+   */
+  private static final int MAX_IN_FLIGHT = Integer.getInteger("idioma.write.maxInFlight", 8);
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long INITIAL_BACKOFF_MS = 200;
+
+  private static final Counter sRetries = Metrics.get().counter(
+      "idioma_datastore_retries_total", "Number of datastore chunk writes that were retried.");
+
+  /**
+   * Starts writing a chunk.
+   */
+  private interface Operation {
+    Result<?> start(List<Translation> chunk);
+  }
+
+  private static final Operation SAVE = new Operation() {
+    @Override
+    public Result<?> start(List<Translation> chunk) {
+      return ofy().save().entities(chunk);
+    }
+  };
+
+  private static final Operation DELETE = new Operation() {
+    @Override
+    public Result<?> start(List<Translation> chunk) {
+      return ofy().delete().entities(chunk);
+    }
+  };
+
+  @Nullable
+  private final WriteProgressListener mListener;
+
+  ChunkedWriter(@Nullable WriteProgressListener listener) {
+    mListener = listener;
+  }
+
+  void save(List<Translation> translations) {
+    write(translations, SAVE);
+  }
+
+  void delete(List<Translation> translations) {
+    write(translations, DELETE);
+  }
+
+  private void write(List<Translation> translations, Operation operation) {
+    Deque<Chunk> inFlight = new ArrayDeque<>(MAX_IN_FLIGHT);
+    int numWritten = 0;
+    for (int from = 0; from < translations.size(); from += CHUNK_SIZE) {
+      if (inFlight.size() == MAX_IN_FLIGHT) {
+        numWritten += complete(inFlight.removeFirst(), operation);
+        reportProgress(numWritten, translations.size());
+      }
+      List<Translation> chunk =
+          translations.subList(from, Math.min(translations.size(), from + CHUNK_SIZE));
+      inFlight.addLast(new Chunk(chunk, operation.start(chunk)));
+    }
+    while (!inFlight.isEmpty()) {
+      numWritten += complete(inFlight.removeFirst(), operation);
+      reportProgress(numWritten, translations.size());
+    }
+  }
+
+  /**
+   * Waits for the chunk to be written, retrying it if it fails with a transient error.
+   *
+   * @return The number of translations in the chunk.
+   */
+  private static int complete(Chunk chunk, Operation operation) {
+    Result<?> result = chunk.result;
+    long backoffMs = INITIAL_BACKOFF_MS;
+    for (int attempt = 1; ; ++attempt) {
+      try {
+        result.now();
+        return chunk.translations.size();
+      } catch (RuntimeException e) {
+        if (attempt == MAX_ATTEMPTS || !isTransient(e)) {
+          throw e;
+        }
+        LOG.log(Level.WARNING, String.format("Writing %d translations failed, retrying in %d ms.",
+            chunk.translations.size(), backoffMs), e);
+        sRetries.increment();
+        try {
+          Thread.sleep(backoffMs);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+        backoffMs *= 2;
+        // Saving and deleting by key is idempotent, so the whole chunk can be written again.
+        result = operation.start(chunk.translations);
+      }
+    }
+  }
+
+  private static boolean isTransient(RuntimeException e) {
+    return e instanceof DatastoreTimeoutException ||
+        e instanceof DatastoreFailureException ||
+        e instanceof ConcurrentModificationException ||
+        e instanceof ApiProxy.ApiDeadlineExceededException;
+  }
+
+  private void reportProgress(int numWritten, int numTotal) {
+    if (mListener != null) {
+      mListener.onProgress(numWritten, numTotal);
+    }
+  }
+
+  private static class Chunk {
+    final List<Translation> translations;
+    final Result<?> result;
+
+    Chunk(List<Translation> translations, Result<?> result) {
+      this.translations = translations;
+      this.result = result;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Gives the CLI tests in com.s13g.idioma.test access to the parts of the data package that are
+ * not part of its public API. Not to be used by anything else.
+ */
+public final class DataTestHooks {
+  public static final int FLAG_DISABLED = Translation.FLAG_DISABLED;
+  public static final int FLAG_IMPORTANT = Translation.FLAG_IMPORTANT;
+  public static final int FLAG_FROM_CONVERSATION = Translation.FLAG_FROM_CONVERSATION;
+  public static final int FLAG_REVERSED = Translation.FLAG_REVERSED;
+
+  private DataTestHooks() {
+  }
+
+  /**
+   * @param flags the FLAG_* constants of the translation.
+   * @return A translation with the given data, in bin 0 and never answered.
+   */
+  public static Translation createTranslation(long hash, String source, String translated,
+                                              @Nullable String note, int flags) {
+    Translation translation = new Translation();
+    translation.hash = hash;
+    translation.source = source;
+    translation.translated = translated;
+    translation.note = note;
+    translation.disabled = (flags & FLAG_DISABLED) != 0;
+    translation.important = (flags & FLAG_IMPORTANT) != 0;
+    translation.fromConversation = (flags & FLAG_FROM_CONVERSATION) != 0;
+    translation.reversed = (flags & FLAG_REVERSED) != 0;
+    return translation;
+  }
+
+  /**
+   * Sets the bin and answers of the given translation, as if it was loaded like that.
+   */
+  public static void setAnswers(Translation translation, int bin, int numCorrect,
+                                int numIncorrect, long lastAnsweredMillis) {
+    translation.bin = bin;
+    translation.numRepliesCorrect = numCorrect;
+    translation.numRepliesIncorrect = numIncorrect;
+    translation.lastAnsweredMillis = lastAnsweredMillis;
+  }
+
+  public static void setModifiedMillis(Translation translation, long modifiedMillis) {
+    translation.modifiedMillis = modifiedMillis;
+  }
+
+  public static long getModifiedMillis(Translation translation) {
+    return translation.modifiedMillis;
+  }
+
+  public static long getLastAnsweredMillis(Translation translation) {
+    return translation.lastAnsweredMillis;
+  }
+
+  /**
+   * @return The FLAG_* constants of the given translation.
+   */
+  public static int getFlagSignature(Translation translation) {
+    return translation.getFlagSignature();
+  }
+
+  public static Translation copy(Translation translation) {
+    return translation.copy();
+  }
+
+  public static long computeHash(String source, String translated, boolean reversed) {
+    return Translation.computeHash(source, translated, reversed);
+  }
+
+  /**
+   * Determines how {@link TranslationsUtil#migrateHashesIfNecessary()} would migrate the given
+   * translations, without touching the datastore.
+   *
+   * @param toSave   receives the translations to save under their current hash.
+   * @param toRemove receives the translations whose old IDs are to be removed.
+   */
+  public static void migrateHashes(Collection<Translation> translations,
+                                   List<Translation> toSave, List<Translation> toRemove) {
+    HashMigration migration = HashMigration.of(translations);
+    toSave.addAll(migration.toSave);
+    toRemove.addAll(migration.toRemove);
+  }
+
+  public static byte[] encodeSnapshot(Collection<Translation> translations) {
+    return SnapshotCodec.encode(translations);
+  }
+
+  public static List<Translation> decodeSnapshot(byte[] data) throws IOException {
+    return SnapshotCodec.decode(data);
+  }
+
+  /**
+   * @see SnapshotStore#merge(List, List)
+   */
+  public static List<Translation> mergeSnapshot(List<Translation> snapshot,
+                                                List<Translation> modified) {
+    return SnapshotStore.merge(snapshot, modified);
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * Information about a deck as a whole. There is one per deck, stored in its namespace.
+ */
+@Entity
+class DeckInfo {
+  static final long ID = 1;
+
+  @Id
+  Long id = ID;
+
+  /**
+   * Incremented whenever translations are removed from the deck. A snapshot taken at an older
+   * structure version is stale.
+   */
+  long structureVersion;
+
+  /**
+   * Identifies the stored snapshot, 0 if there is none. Every chunk carries the ID of the
+   * snapshot it belongs to.
+   */
+  long snapshotId;
+
+  /**
+   * The structure version the stored snapshot was taken at.
+   */
+  long snapshotStructureVersion;
+
+  /**
+   * When the stored snapshot was taken. Translations written after this are read from the
+   * datastore when loading the snapshot.
+   */
+  long snapshotCreatedMillis;
+
+  int snapshotNumChunks;
+
+  /**
+   * The version of {@link Translation#computeHash(String, String, boolean)} the IDs of the
+   * translations in this deck were computed with. 0 for decks from before versions existed.
+   */
+  int hashVersion;
+}
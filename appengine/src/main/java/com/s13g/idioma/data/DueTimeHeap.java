@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of translations ordered by their due time. Every translation remembers its
+ * position in the heap (see {@link Translation#duePosition}), so that adding and removing any
+ * translation are O(log n) and looking at the one due first is O(1).
+ * <p>
+ * This class is not thread-safe. It is used by the {@link DueTimeScheduler}.
+ */
+class DueTimeHeap {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Translation[] mItems = new Translation[INITIAL_CAPACITY];
+  /**
+   * The due time of the item at the same index, kept apart so that sifting does not need to
+   * touch the translations.
+   */
+  private long[] mDueMillis = new long[INITIAL_CAPACITY];
+  private int mSize;
+
+  /**
+   * Adds the given translation. The translation must not be part of any heap.
+   */
+  void add(Translation translation, long dueMillis) {
+    if (translation.duePosition != Translation.NOT_SCHEDULED) {
+      throw new IllegalStateException("Translation already scheduled: " + translation.hash);
+    }
+    if (mSize == mItems.length) {
+      mItems = Arrays.copyOf(mItems, mItems.length * 2);
+      mDueMillis = Arrays.copyOf(mDueMillis, mDueMillis.length * 2);
+    }
+    set(mSize, translation, dueMillis);
+    mSize++;
+    siftUp(mSize - 1);
+  }
+
+  /**
+   * Removes the given translation.
+   *
+   * @return Whether the translation was part of this heap.
+   */
+  boolean remove(Translation translation) {
+    int position = translation.duePosition;
+    if (position < 0 || position >= mSize || mItems[position] != translation) {
+      return false;
+    }
+    int last = mSize - 1;
+    if (position != last) {
+      set(position, mItems[last], mDueMillis[last]);
+      mItems[last] = null;
+      mSize = last;
+      // The moved item can belong above or below the freed position.
+      siftDown(siftUp(position));
+    } else {
+      mItems[last] = null;
+      mSize = last;
+    }
+    translation.duePosition = Translation.NOT_SCHEDULED;
+    return true;
+  }
+
+  /**
+   * @return The translation due first. The heap must not be empty.
+   */
+  Translation peek() {
+    return mItems[0];
+  }
+
+  /**
+   * @return When the translation {@link #peek() due first} is due. The heap must not be empty.
+   */
+  long peekDueMillis() {
+    return mDueMillis[0];
+  }
+
+  int size() {
+    return mSize;
+  }
+
+  boolean isEmpty() {
+    return mSize == 0;
+  }
+
+  /**
+   * @return The position the item ended up at.
+   */
+  private int siftUp(int position) {
+    Translation item = mItems[position];
+    long dueMillis = mDueMillis[position];
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      if (mDueMillis[parent] <= dueMillis) {
+        break;
+      }
+      set(position, mItems[parent], mDueMillis[parent]);
+      position = parent;
+    }
+    set(position, item, dueMillis);
+    return position;
+  }
+
+  private void siftDown(int position) {
+    Translation item = mItems[position];
+    long dueMillis = mDueMillis[position];
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= mSize) {
+        break;
+      }
+      if (child + 1 < mSize && mDueMillis[child + 1] < mDueMillis[child]) {
+        child++;
+      }
+      if (dueMillis <= mDueMillis[child]) {
+        break;
+      }
+      set(position, mItems[child], mDueMillis[child]);
+      position = child;
+    }
+    set(position, item, dueMillis);
+  }
+
+  private void set(int position, Translation translation, long dueMillis) {
+    mItems[position] = translation;
+    mDueMillis[position] = dueMillis;
+    translation.duePosition = position;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which translation to ask next by when it is due, as an alternative to drawing from a
+ * weighted random bin. A translation is due once the interval of its bin has passed since it was
+ * last answered, so translations in higher bins come up less often and none is starved. The
+ * translation due first is asked next, even if it is not due yet.
+ * <p>
+ * Translations that were never answered count as due at the current time, so they are asked once
+ * no answered translation is due anymore, the ones written first first. Translations answered
+ * before the time of the last answer was recorded use the time they were last written instead,
+ * or the time the scheduler was created if that is missing too.
+ * <p>
+ * Deployments choose the scheduler through the system property {@value #SCHEDULER_PROPERTY}:
+ * "random" (the default) draws from a random bin, "due" uses this class. The intervals are
+ * configured in minutes through {@value #INTERVALS_PROPERTY}, one per bin. Bins beyond the list
+ * use its last interval.
+ * <p>
+ * Translations are kept in {@link DueTimeHeap}s per flag signature, one for answered and one for
+ * never answered translations, so that draws restricted by a {@link TranslationFilter} only look
+ * at the heads of the matching heaps. Picking the next
+ * translation and rescheduling one are O(log n). Instances are thread-safe.
+ */
+class DueTimeScheduler {
+  static final String SCHEDULER_PROPERTY = "idioma.scheduler";
+  static final String INTERVALS_PROPERTY = "idioma.scheduler.intervalsMinutes";
+  private static final String DEFAULT_INTERVALS = "1,10,60,1440,10080";
+
+  /**
+   * How long after its last answer a translation is due again, by bin.
+   */
+  private final long[] mIntervalMillis;
+  /**
+   * The scheduled translations that were answered, by flag signature and due time.
+   */
+  private final DueTimeHeap[] mHeaps = new DueTimeHeap[Translation.NUM_FLAG_SIGNATURES];
+  /**
+   * The scheduled translations that were never answered, by flag signature and the time they
+   * were written.
+   */
+  private final DueTimeHeap[] mNewHeaps = new DueTimeHeap[Translation.NUM_FLAG_SIGNATURES];
+  /**
+   * Stands in for missing times, see {@link #getWrittenMillis(Translation)}.
+   */
+  private final long mCreatedMillis = System.currentTimeMillis();
+
+  /**
+   * @return A scheduler with the configured intervals, or null if the deployment draws from
+   * random bins instead.
+   */
+  @Nullable
+  static DueTimeScheduler createConfigured(int numBins) {
+    String scheduler = System.getProperty(SCHEDULER_PROPERTY, "random");
+    switch (scheduler) {
+      case "random":
+        return null;
+      case "due":
+        return new DueTimeScheduler(numBins,
+            parseIntervals(System.getProperty(INTERVALS_PROPERTY, DEFAULT_INTERVALS)));
+      default:
+        throw new IllegalArgumentException("Unknown scheduler: '" + scheduler + "'");
+    }
+  }
+
+  /**
+   * @param intervalMinutes how long after its last answer a translation is due again, by bin.
+   */
+  DueTimeScheduler(int numBins, long... intervalMinutes) {
+    if (intervalMinutes.length == 0) {
+      throw new IllegalArgumentException("Need at least one interval.");
+    }
+    mIntervalMillis = new long[numBins];
+    for (int i = 0; i < numBins; ++i) {
+      mIntervalMillis[i] = intervalMinutes[Math.min(i, intervalMinutes.length - 1)] * 60 * 1000;
+    }
+    for (int i = 0; i < mHeaps.length; ++i) {
+      mHeaps[i] = new DueTimeHeap();
+      mNewHeaps[i] = new DueTimeHeap();
+    }
+  }
+
+  /**
+   * Parses a comma separated list of intervals in minutes, e.g. "1,10,60".
+   */
+  static long[] parseIntervals(String intervals) {
+    String[] parts = intervals.split(",");
+    long[] result = new long[parts.length];
+    for (int i = 0; i < parts.length; ++i) {
+      try {
+        result[i] = Long.parseLong(parts[i].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid intervals: '" + intervals + "'", e);
+      }
+      if (result[i] < 0) {
+        throw new IllegalArgumentException("Intervals must not be negative: '" + intervals + "'");
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Schedules the given translation by its bin and last answer. Its bin, answers and flags must
+   * not change until it is {@link #remove(Translation) removed} again.
+   */
+  synchronized void add(Translation translation) {
+    if (isNew(translation)) {
+      mNewHeaps[translation.getFlagSignature()].add(translation, getWrittenMillis(translation));
+    } else {
+      mHeaps[translation.getFlagSignature()].add(translation, getDueMillis(translation));
+    }
+  }
+
+  /**
+   * @return Whether the translation was scheduled.
+   */
+  synchronized boolean remove(Translation translation) {
+    DueTimeHeap[] heaps = isNew(translation) ? mNewHeaps : mHeaps;
+    return heaps[translation.getFlagSignature()].remove(translation);
+  }
+
+  /**
+   * @param signatures the flag signatures to pick from.
+   * @return The translation with one of the given flag signatures that is due first, or null if
+   * there is none.
+   */
+  @Nullable
+  synchronized Translation getNext(int[] signatures) {
+    DueTimeHeap heap = getHeapDueFirst(signatures, System.currentTimeMillis());
+    return heap != null ? heap.peek() : null;
+  }
+
+  /**
+   * @param signatures the flag signatures to pick from.
+   * @return Up to the given number of translations with one of the given flag signatures, the
+   * one due first first.
+   */
+  synchronized List<Translation> getNext(int count, int[] signatures) {
+    if (count == 1) {
+      Translation next = getNext(signatures);
+      return next != null ? Collections.singletonList(next) : Collections.<Translation>emptyList();
+    }
+    // Take the translations out to get to the ones due after them, then put them back.
+    List<Translation> result = new ArrayList<>(count);
+    long nowMillis = System.currentTimeMillis();
+    while (result.size() < count) {
+      DueTimeHeap heap = getHeapDueFirst(signatures, nowMillis);
+      if (heap == null) {
+        break;
+      }
+      Translation next = heap.peek();
+      heap.remove(next);
+      result.add(next);
+    }
+    for (Translation translation : result) {
+      add(translation);
+    }
+    return result;
+  }
+
+  /**
+   * @return When the given answered translation is due again.
+   */
+  long getDueMillis(Translation translation) {
+    long lastAnsweredMillis = translation.lastAnsweredMillis != 0 ?
+        translation.lastAnsweredMillis : getWrittenMillis(translation);
+    return lastAnsweredMillis + mIntervalMillis[translation.bin];
+  }
+
+  /**
+   * @return When the translation was last written, which is when it was last answered for
+   * translations answered before that time was recorded.
+   */
+  private long getWrittenMillis(Translation translation) {
+    return translation.modifiedMillis != 0 ? translation.modifiedMillis : mCreatedMillis;
+  }
+
+  private static boolean isNew(Translation translation) {
+    return translation.lastAnsweredMillis == 0 &&
+        translation.numRepliesCorrect == 0 && translation.numRepliesIncorrect == 0;
+  }
+
+  /**
+   * @return The heap whose head is to be asked next: The answered one due first, if it is due at
+   * the given time. Otherwise the never answered one written first, if any.
+   */
+  @Nullable
+  private DueTimeHeap getHeapDueFirst(int[] signatures, long nowMillis) {
+    DueTimeHeap first = getHeapFirst(mHeaps, signatures);
+    if (first != null && first.peekDueMillis() <= nowMillis) {
+      return first;
+    }
+    DueTimeHeap firstNew = getHeapFirst(mNewHeaps, signatures);
+    return firstNew != null ? firstNew : first;
+  }
+
+  @Nullable
+  private static DueTimeHeap getHeapFirst(DueTimeHeap[] heaps, int[] signatures) {
+    DueTimeHeap first = null;
+    for (int signature : signatures) {
+      DueTimeHeap heap = heaps[signature];
+      if (!heap.isEmpty() && (first == null || heap.peekDueMillis() < first.peekDueMillis())) {
+        first = heap;
+      }
+    }
+    return first;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A bin that partitions its translations by their flag signature, one {@link IndexedBin} per
+ * signature. Drawing from the translations matching a {@link TranslationFilter} therefore only
+ * has to look at the sizes of the matching partitions, which is O(1) since there is a fixed
+ * number of them.
+ * <p>
+ * A translation must be removed before its flags change and added again afterwards.
+ * <p>
+ * This class is not thread-safe, {@link Bins} guards every bin with its own lock.
+ */
+class FlaggedBin {
+  private final IndexedBin[] mPartitions = new IndexedBin[Translation.NUM_FLAG_SIGNATURES];
+  private int mSize;
+
+  FlaggedBin() {
+    for (int i = 0; i < mPartitions.length; ++i) {
+      mPartitions[i] = new IndexedBin();
+    }
+  }
+
+  /**
+   * Adds the given translation to the partition of its flags. The translation must not be part
+   * of any bin.
+   */
+  void add(Translation translation) {
+    mPartitions[translation.getFlagSignature()].add(translation);
+    mSize++;
+  }
+
+  /**
+   * Removes the given translation from this bin.
+   *
+   * @return Whether the translation was part of this bin.
+   */
+  boolean remove(Translation translation) {
+    if (!mPartitions[translation.getFlagSignature()].remove(translation)) {
+      return false;
+    }
+    mSize--;
+    return true;
+  }
+
+  /**
+   * @return A translation drawn uniformly from the ones matching the filter, or null if there
+   * are none.
+   */
+  @Nullable
+  Translation getRandom(TranslationFilter filter, Random random) {
+    int[] signatures = filter.getSignatures();
+    int numMatching = 0;
+    for (int signature : signatures) {
+      numMatching += mPartitions[signature].size();
+    }
+    if (numMatching == 0) {
+      return null;
+    }
+    int index = random.nextInt(numMatching);
+    for (int signature : signatures) {
+      IndexedBin partition = mPartitions[signature];
+      if (index < partition.size()) {
+        return partition.get(index);
+      }
+      index -= partition.size();
+    }
+    throw new IllegalStateException("Partition sizes changed during draw");
+  }
+
+  /**
+   * Adds a {@link Translation#copy() copy} of every translation in this bin to the given list.
+   */
+  void addCopiesTo(List<Translation> copies) {
+    for (IndexedBin partition : mPartitions) {
+      for (int i = 0; i < partition.size(); ++i) {
+        copies.add(partition.get(i).copy());
+      }
+    }
+  }
+
+  /**
+   * @return The number of translations with the given flag signature.
+   */
+  int size(int signature) {
+    return mPartitions[signature].size();
+  }
+
+  int size() {
+    return mSize;
+  }
+
+  boolean isEmpty() {
+    return mSize == 0;
+  }
+}
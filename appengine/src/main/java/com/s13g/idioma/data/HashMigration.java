@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Moves translations whose ID was computed with an older version of
+ * {@link Translation#computeHash(String, String, boolean)} to their current hash, keeping their
+ * bin and answer counters.
+ * <p>
+ * Translations that end up with the same hash, e.g. because they only differed in surrounding
+ * whitespace, are merged into the one that was answered most often. Migrating translations that
+ * already have their current hash changes nothing, so an interrupted migration can simply be run
+ * again.
+ */
+class HashMigration {
+  /**
+   * Translations to write under their current hash.
+   */
+  final List<Translation> toSave = new ArrayList<>();
+  /**
+   * Translations whose old ID is no longer used. Only their hash is valid.
+   */
+  final List<Translation> toRemove = new ArrayList<>();
+
+  private HashMigration() {
+  }
+
+  static HashMigration of(Collection<Translation> translations) {
+    HashMigration migration = new HashMigration();
+    List<Translation> outdated = new ArrayList<>();
+    LongObjectMap<Translation> byHash = new LongObjectMap<>(translations.size());
+    Set<Translation> moved = Collections.newSetFromMap(new IdentityHashMap<Translation, Boolean>());
+    for (Translation translation : translations) {
+      long hash = Translation.computeHash(
+          translation.source, translation.translated, translation.reversed);
+      Translation current = translation;
+      if (translation.hash != hash) {
+        outdated.add(translation);
+        current = translation.copy();
+        current.hash = hash;
+        moved.add(current);
+      }
+      Translation other = byHash.get(hash);
+      if (other == null || getNumReplies(current) > getNumReplies(other)) {
+        byHash.put(hash, current);
+      }
+    }
+    for (int i = 0; i < byHash.capacity(); ++i) {
+      Translation translation = byHash.valueAt(i);
+      // Translations that kept their hash are stored already.
+      if (translation != null && moved.contains(translation)) {
+        migration.toSave.add(translation);
+      }
+    }
+    for (Translation translation : outdated) {
+      // The old ID could happen to be the current hash of another translation.
+      if (!byHash.containsKey(translation.hash)) {
+        migration.toRemove.add(translation);
+      }
+    }
+    return migration;
+  }
+
+  private static int getNumReplies(Translation translation) {
+    return translation.numRepliesCorrect + translation.numRepliesIncorrect;
+  }
+}
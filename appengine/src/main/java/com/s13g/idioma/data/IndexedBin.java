@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import java.util.Arrays;
+
+/**
+ * A bin of translations backed by a dense array. Every translation remembers its position in the
+ * array (see {@link Translation#binPosition}), so that adding, removing and accessing an item by
+ * index are all O(1). Removal swaps the last item into the freed slot, so the order of items is
+ * not stable.
+ * <p>
+ * This class is not thread-safe. It is used as a partition of a {@link FlaggedBin}.
+ */
+class IndexedBin {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Translation[] mItems;
+  private int mSize;
+
+  IndexedBin() {
+    this(INITIAL_CAPACITY);
+  }
+
+  IndexedBin(int initialCapacity) {
+    mItems = new Translation[Math.max(initialCapacity, 1)];
+    mSize = 0;
+  }
+
+  /**
+   * Adds the given translation to this bin. The translation must not be part of any bin.
+   */
+  void add(Translation translation) {
+    if (translation.binPosition != Translation.NOT_IN_BIN) {
+      throw new IllegalStateException("Translation already in a bin: " + translation.hash);
+    }
+    if (mSize == mItems.length) {
+      mItems = Arrays.copyOf(mItems, mItems.length * 2);
+    }
+    mItems[mSize] = translation;
+    translation.binPosition = mSize;
+    mSize++;
+  }
+
+  /**
+   * Removes the given translation from this bin.
+   *
+   * @return Whether the translation was part of this bin.
+   */
+  boolean remove(Translation translation) {
+    int position = translation.binPosition;
+    if (position < 0 || position >= mSize || mItems[position] != translation) {
+      return false;
+    }
+    int last = mSize - 1;
+    if (position != last) {
+      Translation moved = mItems[last];
+      mItems[position] = moved;
+      moved.binPosition = position;
+    }
+    mItems[last] = null;
+    mSize = last;
+    translation.binPosition = Translation.NOT_IN_BIN;
+    return true;
+  }
+
+  /**
+   * @return The translation at the given index.
+   */
+  Translation get(int index) {
+    if (index < 0 || index >= mSize) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+    }
+    return mItems[index];
+  }
+
+  int size() {
+    return mSize;
+  }
+
+  boolean isEmpty() {
+    return mSize == 0;
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import javax.annotation.Nullable;
+
+/**
+ * The state of the latest ingestion of a source into a deck, so that its progress can be polled
+ * on any instance and a source is not ingested twice at the same time. Stored in the namespace
+ * of the deck, one per source.
+ */
+@Entity
+public class IngestionState {
+  /**
+   * A running ingestion saves its state at least every few seconds. If it did not for this long,
+   * it is assumed to have died, e.g. because its task ran into the deadline.
+   */
+  private static final long STALE_AFTER_MS = 15 * 60 * 1000;
+
+  public enum Phase {
+    /** Waiting for its task to run. */
+    QUEUED,
+    /** Reading the translations from the source. */
+    FETCHING,
+    /** Reading the existing translations of the deck. */
+    LOADING,
+    /** Writing the changes to the datastore and the loaded deck. */
+    WRITING,
+    DONE,
+    FAILED
+  }
+
+  /**
+   * Identifies the source, e.g. the spreadsheet or a hash of an uploaded file.
+   */
+  @Id
+  String sourceKey;
+
+  /**
+   * Identifies this ingestion of the source, since a source can be ingested again later.
+   */
+  String jobId;
+
+  Phase phase;
+  int numFetched;
+  int numWritten;
+
+  /**
+   * What was changed. Null until the ingestion is done.
+   */
+  @Nullable
+  Integer numAdded;
+  @Nullable
+  Integer numDeleted;
+  @Nullable
+  Integer numUpdated;
+
+  @Nullable
+  String error;
+
+  long createdMillis;
+  long updatedMillis;
+  long finishedMillis;
+
+  /**
+   * The stored upload that is ingested, if any. See {@link IngestionStore#saveUpload}.
+   */
+  @Nullable
+  String uploadId;
+  int uploadNumChunks;
+
+  /**
+   * For Objectify.
+   */
+  private IngestionState() {
+  }
+
+  IngestionState(String sourceKey, String jobId, @Nullable String uploadId,
+                 int uploadNumChunks) {
+    this.sourceKey = sourceKey;
+    this.jobId = jobId;
+    this.phase = Phase.QUEUED;
+    this.createdMillis = System.currentTimeMillis();
+    this.updatedMillis = createdMillis;
+    this.uploadId = uploadId;
+    this.uploadNumChunks = uploadNumChunks;
+  }
+
+  public String getSourceKey() {
+    return sourceKey;
+  }
+
+  public String getJobId() {
+    return jobId;
+  }
+
+  /**
+   * @return The phase of the ingestion. FAILED, if it stopped saving its progress.
+   */
+  public Phase getPhase() {
+    return isStale() ? Phase.FAILED : phase;
+  }
+
+  public void setPhase(Phase phase) {
+    this.phase = phase;
+    if (isFinished()) {
+      finishedMillis = System.currentTimeMillis();
+    }
+  }
+
+  public boolean isFinished() {
+    Phase phase = getPhase();
+    return phase == Phase.DONE || phase == Phase.FAILED;
+  }
+
+  /**
+   * @return Whether the ingestion did not finish, but stopped saving its progress.
+   */
+  boolean isStale() {
+    return phase != Phase.DONE && phase != Phase.FAILED &&
+        System.currentTimeMillis() - updatedMillis > STALE_AFTER_MS;
+  }
+
+  /**
+   * @return The number of translations read from the source that are ingested. When syncing a
+   * sheet, only the changed ones count.
+   */
+  public int getNumFetched() {
+    return numFetched;
+  }
+
+  public void setNumFetched(int numFetched) {
+    this.numFetched = numFetched;
+  }
+
+  /**
+   * @return The number of translations written to or removed from the datastore so far.
+   */
+  public int getNumWritten() {
+    return numWritten;
+  }
+
+  public void addNumWritten(int numWritten) {
+    this.numWritten += numWritten;
+  }
+
+  /**
+   * @return What was changed, once the ingestion is done, or null.
+   */
+  @Nullable
+  public IngestionUtil.UpdateStats getUpdateStats() {
+    if (numAdded == null || numDeleted == null || numUpdated == null) {
+      return null;
+    }
+    return new IngestionUtil.UpdateStats(numDeleted, numAdded, numUpdated);
+  }
+
+  public void setUpdateStats(IngestionUtil.UpdateStats stats) {
+    numAdded = stats.numAdded;
+    numDeleted = stats.numDeleted;
+    numUpdated = stats.numUpdated;
+  }
+
+  /**
+   * @return Why the ingestion failed, if it did.
+   */
+  @Nullable
+  public String getError() {
+    if (isStale()) {
+      return "Stopped making progress.";
+    }
+    return error;
+  }
+
+  public void setError(@Nullable String error) {
+    this.error = error;
+  }
+
+  public long getCreatedMillis() {
+    return createdMillis;
+  }
+
+  /**
+   * @return When the ingestion finished, or 0 if it did not yet.
+   */
+  public long getFinishedMillis() {
+    return finishedMillis;
+  }
+
+  @Nullable
+  public String getUploadId() {
+    return uploadId;
+  }
+
+  public int getUploadNumChunks() {
+    return uploadNumChunks;
+  }
+}
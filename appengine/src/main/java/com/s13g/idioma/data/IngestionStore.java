@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Stores the {@link IngestionState}s and pending uploads of a deck in its datastore namespace,
+ * so that ingestions can run as tasks on any instance.
+ */
+public class IngestionStore {
+  private static final Logger LOG = Logger.getLogger("IngestionStore");
+
+  /**
+   * Stays below the entity size limit of 1 MB.
+   */
+  private static final int CHUNK_SIZE = 900 * 1024;
+  /**
+   * Larger uploads are rejected.
+   */
+  private static final int MAX_UPLOAD_CHUNKS = 64;
+
+  /**
+   * The datastore namespace of the deck.
+   */
+  private final String mNamespace;
+
+  public IngestionStore(String deckId) {
+    mNamespace = deckId;
+  }
+
+  /**
+   * @return The state of the latest ingestion of the given source, or null if there was none.
+   */
+  @Nullable
+  public IngestionState getState(String sourceKey) {
+    String previousNamespace = enterNamespace();
+    try {
+      return ofy().load().type(IngestionState.class).id(sourceKey).now();
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Saves the progress of a running ingestion.
+   */
+  public void save(IngestionState state) {
+    String previousNamespace = enterNamespace();
+    try {
+      state.updatedMillis = System.currentTimeMillis();
+      ofy().save().entity(state).now();
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Starts a new ingestion of the given source, unless one is queued or running already.
+   *
+   * @param uploadId        the upload to ingest, if any.
+   * @param uploadNumChunks the number of chunks returned by {@link #saveUpload}.
+   * @return The state of the new ingestion, or of the one that is queued or running. Compare
+   * {@link IngestionState#getJobId()} to tell them apart.
+   */
+  public IngestionState startIfNotRunning(final String sourceKey, final String jobId,
+                                          @Nullable final String uploadId,
+                                          final int uploadNumChunks) {
+    String previousNamespace = enterNamespace();
+    try {
+      return ofy().transact(new Work<IngestionState>() {
+        @Override
+        public IngestionState run() {
+          IngestionState existing =
+              ofy().load().type(IngestionState.class).id(sourceKey).now();
+          if (existing != null && !existing.isFinished()) {
+            return existing;
+          }
+          IngestionState state = new IngestionState(sourceKey, jobId, uploadId, uploadNumChunks);
+          ofy().save().entity(state).now();
+          return state;
+        }
+      });
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Stores the given file until it is ingested.
+   *
+   * @return The number of chunks it was stored in.
+   * @throws IOException if it cannot be read or is too large.
+   */
+  public int saveUpload(String uploadId, InputStream in) throws IOException {
+    String previousNamespace = enterNamespace();
+    int numChunks = 0;
+    try {
+      byte[] buffer = new byte[CHUNK_SIZE];
+      int length;
+      // Only one chunk is held in memory at a time.
+      while ((length = ByteStreams.read(in, buffer, 0, buffer.length)) > 0) {
+        if (numChunks == MAX_UPLOAD_CHUNKS) {
+          throw new IOException("Upload is larger than " + MAX_UPLOAD_CHUNKS * CHUNK_SIZE +
+              " bytes.");
+        }
+        UploadChunk chunk = new UploadChunk();
+        chunk.id = UploadChunk.createId(uploadId, numChunks);
+        chunk.data = Arrays.copyOf(buffer, length);
+        ofy().save().entity(chunk).now();
+        numChunks++;
+      }
+      return numChunks;
+    } catch (IOException | RuntimeException e) {
+      deleteUpload(uploadId, numChunks);
+      throw e;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * @return The stored upload. It can be read several times, each time from the datastore chunk
+   * by chunk.
+   */
+  public ByteSource getUpload(final String uploadId, final int numChunks) {
+    return new ByteSource() {
+      @Override
+      public InputStream openStream() {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+          private int mNextIndex;
+
+          @Override
+          public boolean hasMoreElements() {
+            return mNextIndex < numChunks;
+          }
+
+          @Override
+          public InputStream nextElement() {
+            if (!hasMoreElements()) {
+              throw new NoSuchElementException();
+            }
+            return new ByteArrayInputStream(loadChunk(uploadId, mNextIndex++));
+          }
+        });
+      }
+    };
+  }
+
+  private byte[] loadChunk(String uploadId, int index) {
+    String previousNamespace = enterNamespace();
+    try {
+      String id = UploadChunk.createId(uploadId, index);
+      UploadChunk chunk = ofy().load().type(UploadChunk.class).id(id).now();
+      if (chunk == null || chunk.data == null) {
+        throw new IllegalStateException("Missing chunk " + id + " of the upload.");
+      }
+      return chunk.data;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Deletes the stored upload, once it was ingested or is not needed.
+   */
+  public void deleteUpload(String uploadId, int numChunks) {
+    String previousNamespace = enterNamespace();
+    try {
+      List<Key<UploadChunk>> keys = new ArrayList<>(numChunks);
+      for (int i = 0; i < numChunks; ++i) {
+        keys.add(Key.create(UploadChunk.class, UploadChunk.createId(uploadId, i)));
+      }
+      ofy().delete().keys(keys).now();
+    } catch (RuntimeException e) {
+      // Only wastes some space.
+      LOG.log(Level.WARNING, "Cannot delete upload " + uploadId + ".", e);
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Switches to the namespace of this deck.
+   *
+   * @return The previous namespace, to be restored when done.
+   */
+  private String enterNamespace() {
+    String previousNamespace = NamespaceManager.get();
+    NamespaceManager.set(mNamespace);
+    return previousNamespace;
+  }
+}
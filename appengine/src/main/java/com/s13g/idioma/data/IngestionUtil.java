@@ -16,7 +16,15 @@
 
 package com.s13g.idioma.data;
 
-import java.util.*;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -26,6 +34,29 @@ public class IngestionUtil {
   private static final Logger LOG = Logger.getLogger("IngestionUtil");
   private static final boolean TESTRUN = false;
 
+  /**
+   * Number of translations below which a diff task is not split up any further.
+   */
+  private static final int DIFF_TASK_THRESHOLD = 8192;
+
+  private static ForkJoinPool sDiffPool;
+
+  private final String mDeckId;
+
+  /**
+   * Ingests into the default deck.
+   */
+  public IngestionUtil() {
+    this(BinsCache.DEFAULT_DECK);
+  }
+
+  /**
+   * Ingests into the given deck.
+   */
+  public IngestionUtil(String deckId) {
+    mDeckId = deckId;
+  }
+
   /**
    * This method takes the existing translation in the datastore as well as the ground truth of
    * the import. It then determines, which translations should be kept, which ones should be
@@ -42,74 +73,314 @@ public class IngestionUtil {
   public UpdateStats ingest(Collection<Translation> existingTranslations,
                             Collection<Translation> ingestedGroundTruth,
                             DataStoreUpdater updater) throws IngestionException {
-    Map<Long, Translation> existingMap = new HashMap<>(existingTranslations.size());
-    for (Translation t : existingTranslations) {
-      existingMap.put(t.hash, t);
+    return ingest(existingTranslations, ingestedGroundTruth, updater, null);
+  }
+
+  /**
+   * Like {@link #ingest(Collection, Collection, DataStoreUpdater)}, but the existing
+   * translations may only have their hash and flags loaded, as returned by
+   * {@link TranslationsUtil#getSetForDiff()}. The complete translations are only loaded for the
+   * ones that need to be updated.
+   *
+   * @param loader loads the complete translations. If null, the existing translations must be
+   *               complete.
+   */
+  public UpdateStats ingest(Collection<Translation> existingTranslations,
+                            Collection<Translation> ingestedGroundTruth,
+                            DataStoreUpdater updater,
+                            @Nullable TranslationLoader loader) throws IngestionException {
+    return ingest(existingTranslations, ingestedGroundTruth, updater, loader, null);
+  }
+
+  /**
+   * Like {@link #ingest(Collection, Collection, DataStoreUpdater, TranslationLoader)}, but the
+   * ingested translations may also only have their hash and flags, see
+   * {@link Translation#toDiffRecord()}. Only the ones to add are loaded completely, from the
+   * source.
+   *
+   * @param groundTruthLoader loads the complete ingested translations. If null, the ingested
+   *                          translations must be complete.
+   */
+  public UpdateStats ingest(Collection<Translation> existingTranslations,
+                            Collection<Translation> ingestedGroundTruth,
+                            DataStoreUpdater updater,
+                            @Nullable TranslationLoader loader,
+                            @Nullable TranslationLoader groundTruthLoader)
+      throws IngestionException {
+    UpdateResult updateResult = determineUpdates(existingTranslations, ingestedGroundTruth);
+    updateResult.logStats();
+    if (loader != null) {
+      completeUpdates(updateResult, loader);
+    }
+    if (groundTruthLoader != null) {
+      completeAdditions(updateResult, groundTruthLoader);
     }
-    Map<Long, Translation> ingestedMap = new HashMap<>(ingestedGroundTruth.size());
-    for (Translation t : ingestedGroundTruth) {
-      ingestedMap.put(t.hash, t);
+    return write(updateResult, updater);
+  }
+
+  /**
+   * Ingests only what changed in the source since the last ingestion, instead of the complete
+   * ground truth.
+   *
+   * @param changed       translations that were added or changed in the source. Translations
+   *                      that do not exist yet are added, the others are updated if necessary.
+   * @param removedHashes hashes of translations that are gone from the source.
+   * @param updater       used to update the underlying data store.
+   * @param loader        loads the existing translations that were changed.
+   */
+  public UpdateStats ingestChanges(Collection<Translation> changed,
+                                   Collection<Long> removedHashes,
+                                   DataStoreUpdater updater,
+                                   TranslationLoader loader) {
+    List<Long> hashes = new ArrayList<>(changed.size());
+    for (Translation t : changed) {
+      hashes.add(t.hash);
     }
+    Map<Long, Translation> existing = loader.loadComplete(hashes);
 
-    UpdateResult updateResult = determineUpdates(existingMap, ingestedMap);
+    UpdateResult updateResult = new UpdateResult();
+    for (Translation t : changed) {
+      Translation translation = existing.get(t.hash);
+      if (translation == null) {
+        updateResult.toAdd.add(t);
+      } else if (translation.updateFromIngested(t) != null) {
+        updateResult.toUpdate.add(translation);
+      }
+    }
+    for (long hash : removedHashes) {
+      // Only the hash is needed to remove a translation.
+      Translation t = new Translation();
+      t.hash = hash;
+      updateResult.toDelete.add(t);
+    }
     updateResult.logStats();
+    return write(updateResult, updater);
+  }
 
+  private UpdateStats write(UpdateResult updateResult, DataStoreUpdater updater) {
     if (!TESTRUN) {
       updater.remove(updateResult.toDelete);
-      updater.persist(updateResult.toAdd);
-      updater.persist(updateResult.toUpdate);
+      // Added and updated translations are written in one go, so their chunks are pipelined.
+      List<Translation> toPersist =
+          new ArrayList<>(updateResult.toAdd.size() + updateResult.toUpdate.size());
+      toPersist.addAll(updateResult.toAdd);
+      toPersist.addAll(updateResult.toUpdate);
+      updater.persist(toPersist);
       LOG.info("Data store updated");
+
+      // TODO: Keep a register of components that need updates.
+      Bins.onDataUpdated(mDeckId, updateResult);
     } else {
       LOG.warning("Not performing any action, TESTRUN enabled.");
     }
-
-    // TODO: Keep a register of components that need updates.
-    Bins.onDataUpdated();
     return UpdateStats.from(updateResult);
   }
 
   /**
-   * Determine which entries have to be updated in which way.
+   * Replaces the partially loaded translations to update by complete ones with the same updates
+   * applied. Translations to delete are only needed for their hash, so they stay as they are.
+   */
+  private static void completeUpdates(UpdateResult updateResult, TranslationLoader loader)
+      throws IngestionException {
+    if (updateResult.toUpdate.isEmpty()) {
+      return;
+    }
+    List<Long> hashes = new ArrayList<>(updateResult.toUpdate.size());
+    for (Translation t : updateResult.toUpdate) {
+      hashes.add(t.hash);
+    }
+    Map<Long, Translation> complete = loader.loadComplete(hashes);
+    for (int i = 0; i < updateResult.toUpdate.size(); ++i) {
+      Translation partial = updateResult.toUpdate.get(i);
+      Translation translation = complete.get(partial.hash);
+      if (translation == null) {
+        throw new IngestionException("Translation disappeared during ingestion: " + partial.hash);
+      }
+      // The partial translation already carries the ingested flags.
+      translation.updateFromIngested(partial);
+      updateResult.toUpdate.set(i, translation);
+    }
+  }
+
+  /**
+   * Replaces the partially loaded translations to add by complete ones. Updated translations
+   * only need the ingested flags, which the partial ones carry.
+   */
+  private static void completeAdditions(UpdateResult updateResult, TranslationLoader loader)
+      throws IngestionException {
+    if (updateResult.toAdd.isEmpty()) {
+      return;
+    }
+    List<Long> hashes = new ArrayList<>(updateResult.toAdd.size());
+    for (Translation t : updateResult.toAdd) {
+      hashes.add(t.hash);
+    }
+    Map<Long, Translation> complete = loader.loadComplete(hashes);
+    for (int i = 0; i < updateResult.toAdd.size(); ++i) {
+      Translation translation = complete.get(updateResult.toAdd.get(i).hash);
+      if (translation == null) {
+        throw new IngestionException(
+            "Translation disappeared from the source: " + updateResult.toAdd.get(i).hash);
+      }
+      updateResult.toAdd.set(i, translation);
+    }
+  }
+
+  /**
+   * Determine which entries have to be updated in which way. Translations that remain will have
+   * their fields updated from the ground truth.
+   * <p>
+   * Both collections are indexed by hash in primitive maps. Then both are scanned in parallel,
+   * partitioned into ranges: Existing translations are either deleted or updated, ingested ones
+   * are added if they do not exist yet.
    *
    * @param existing    the existing translations
-   * @param groundTruth the ground truth of translations
+   * @param groundTruth the ground truth of translations. If it contains several translations with
+   *                    the same hash, the last one wins.
    * @return The update result detailing which entries to add, remove and update.
    */
-  private UpdateResult determineUpdates(Map<Long, Translation> existing,
-                                        Map<Long, Translation> groundTruth) {
-    UpdateResult updateResult = new UpdateResult();
-    // Determine which translations need to be deleted.
-    for (Translation t : existing.values()) {
-      if (!groundTruth.keySet().contains(t.hash)) {
-        updateResult.toDelete.add(t);
+  public UpdateResult determineUpdates(Collection<Translation> existing,
+                                       Collection<Translation> groundTruth) {
+    LongObjectMap<Translation> existingByHash = new LongObjectMap<>(existing.size());
+    Translation[] existingArray = index(existing, existingByHash);
+    LongObjectMap<Translation> groundTruthByHash = new LongObjectMap<>(groundTruth.size());
+    Translation[] groundTruthArray = index(groundTruth, groundTruthByHash);
+
+    DiffTask task = new DiffTask(existingArray, 0, existingArray.length, groundTruthArray, 0,
+        groundTruthArray.length, existingByHash, groundTruthByHash);
+    if (existingArray.length + groundTruthArray.length <= DIFF_TASK_THRESHOLD) {
+      task.compute();
+    } else {
+      try {
+        getDiffPool().invoke(task);
+      } catch (RejectedExecutionException | SecurityException e) {
+        // The environment might not let us start worker threads.
+        LOG.log(Level.WARNING, "Cannot diff in parallel.", e);
+        task = new DiffTask(existingArray, 0, existingArray.length, groundTruthArray, 0,
+            groundTruthArray.length, existingByHash, groundTruthByHash);
+        task.computeSequentially();
       }
     }
 
-    // Determine which translations will be added.
-    for (Translation t : groundTruth.values()) {
-      if (!existing.keySet().contains(t.hash)) {
-        updateResult.toAdd.add(t);
+    // The tasks only determine what to update, so they can safely be re-run. Apply the updates.
+    UpdateResult result = task.result;
+    for (Translation t : result.toUpdate) {
+      t.updateFromIngested(groundTruthByHash.get(t.hash));
+    }
+    return result;
+  }
+
+  /**
+   * Puts all translations into the given map keyed by hash.
+   *
+   * @return The translations without duplicate hashes, keeping the last one of each hash.
+   */
+  private static Translation[] index(Collection<Translation> translations,
+                                     LongObjectMap<Translation> byHash) {
+    Translation[] array = translations.toArray(new Translation[translations.size()]);
+    // Walk backwards, so the last translation of each hash is the one that is kept.
+    int unique = array.length;
+    for (int i = array.length - 1; i >= 0; --i) {
+      if (byHash.putIfAbsent(array[i].hash, array[i]) == null) {
+        array[--unique] = array[i];
+      }
+    }
+    if (unique == 0) {
+      return array;
+    }
+    Translation[] result = new Translation[array.length - unique];
+    System.arraycopy(array, unique, result, 0, result.length);
+    return result;
+  }
+
+  private static synchronized ForkJoinPool getDiffPool() {
+    if (sDiffPool == null) {
+      sDiffPool = new ForkJoinPool();
+    }
+    return sDiffPool;
+  }
+
+  /**
+   * Diffs a range of the existing and a range of the ingested translations, splitting itself up
+   * until the ranges are small enough.
+   */
+  private static class DiffTask extends RecursiveAction {
+    private final Translation[] mExisting;
+    private final int mExistingFrom;
+    private final int mExistingTo;
+    private final Translation[] mGroundTruth;
+    private final int mGroundTruthFrom;
+    private final int mGroundTruthTo;
+    private final LongObjectMap<Translation> mExistingByHash;
+    private final LongObjectMap<Translation> mGroundTruthByHash;
+    final UpdateResult result = new UpdateResult();
+
+    DiffTask(Translation[] existing, int existingFrom, int existingTo,
+             Translation[] groundTruth, int groundTruthFrom, int groundTruthTo,
+             LongObjectMap<Translation> existingByHash,
+             LongObjectMap<Translation> groundTruthByHash) {
+      mExisting = existing;
+      mExistingFrom = existingFrom;
+      mExistingTo = existingTo;
+      mGroundTruth = groundTruth;
+      mGroundTruthFrom = groundTruthFrom;
+      mGroundTruthTo = groundTruthTo;
+      mExistingByHash = existingByHash;
+      mGroundTruthByHash = groundTruthByHash;
+    }
+
+    @Override
+    protected void compute() {
+      int numExisting = mExistingTo - mExistingFrom;
+      int numGroundTruth = mGroundTruthTo - mGroundTruthFrom;
+      if (numExisting + numGroundTruth <= DIFF_TASK_THRESHOLD) {
+        computeSequentially();
+        return;
       }
+      int existingMid = mExistingFrom + numExisting / 2;
+      int groundTruthMid = mGroundTruthFrom + numGroundTruth / 2;
+      DiffTask left = new DiffTask(mExisting, mExistingFrom, existingMid,
+          mGroundTruth, mGroundTruthFrom, groundTruthMid, mExistingByHash, mGroundTruthByHash);
+      DiffTask right = new DiffTask(mExisting, existingMid, mExistingTo,
+          mGroundTruth, groundTruthMid, mGroundTruthTo, mExistingByHash, mGroundTruthByHash);
+      invokeAll(left, right);
+      result.addAll(left.result);
+      result.addAll(right.result);
     }
 
-    // Last but not least, this will determine the set of translation that will remain, because
-    // they are in both set. But we need to ensure we update the fields in case something has
-    // changed.
-    for (Translation t : existing.values()) {
-      if (groundTruth.keySet().contains(t.hash)) {
-        Translation updatedTranslation = t.updateFromIngested(groundTruth.get(t.hash));
-        if (updatedTranslation != null) {
-          updateResult.toUpdate.add(updatedTranslation);
+    void computeSequentially() {
+      // Existing translations are either gone from the ground truth, or they remain. Remaining
+      // ones need to be updated in case something has changed.
+      for (int i = mExistingFrom; i < mExistingTo; ++i) {
+        Translation t = mExisting[i];
+        Translation ingested = mGroundTruthByHash.get(t.hash);
+        if (ingested == null) {
+          result.toDelete.add(t);
+        } else if (t.needsUpdateFrom(ingested)) {
+          result.toUpdate.add(t);
+        }
+      }
+
+      // Determine which translations will be added.
+      for (int i = mGroundTruthFrom; i < mGroundTruthTo; ++i) {
+        Translation t = mGroundTruth[i];
+        if (!mExistingByHash.containsKey(t.hash)) {
+          result.toAdd.add(t);
         }
       }
     }
-    return updateResult;
   }
 
-  private static class UpdateResult {
-    final Set<Translation> toDelete = new HashSet<>();
-    final Set<Translation> toAdd = new HashSet<>();
-    final Set<Translation> toUpdate = new HashSet<>();
+  public static class UpdateResult {
+    final List<Translation> toDelete = new ArrayList<>();
+    final List<Translation> toAdd = new ArrayList<>();
+    final List<Translation> toUpdate = new ArrayList<>();
+
+    void addAll(UpdateResult other) {
+      toDelete.addAll(other.toDelete);
+      toAdd.addAll(other.toAdd);
+      toUpdate.addAll(other.toUpdate);
+    }
 
     void logStats() {
       LOG.info(String.format("UpdateResult: Deleting: %d, adding: %d, updating: %d.",
@@ -122,13 +393,13 @@ public class IngestionUtil {
     public final int numAdded;
     public final int numUpdated;
 
-    private UpdateStats(int numDeleted, int numAdded, int numUpdated) {
+    UpdateStats(int numDeleted, int numAdded, int numUpdated) {
       this.numDeleted = numDeleted;
       this.numAdded = numAdded;
       this.numUpdated = numUpdated;
     }
 
-    static UpdateStats from(UpdateResult result) {
+    public static UpdateStats from(UpdateResult result) {
       return new UpdateStats(
           result.toDelete.size(),
           result.toAdd.size(),
@@ -137,6 +408,10 @@ public class IngestionUtil {
   }
 
   public static class IngestionException extends Exception {
+    IngestionException(String message) {
+      super("Cannot ingest: " + message);
+    }
+
     IngestionException(String message, Throwable t) {
       super("Cannot ingest: " + message, t);
     }
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to non-null values, using open addressing with linear
+ * probing. Compared to a HashMap&lt;Long, V&gt; this neither boxes keys nor allocates an entry
+ * object per mapping, which makes it considerably smaller and faster for large maps.
+ * <p>
+ * This class is not thread-safe. Concurrent reads are fine as long as there are no writers.
+ */
+public class LongObjectMap<V> {
+  private static final float MAX_LOAD_FACTOR = 0.6f;
+
+  private long[] mKeys;
+  /**
+   * A null value marks a free slot.
+   */
+  private Object[] mValues;
+  private int mSize;
+  private int mMask;
+  private int mResizeThreshold;
+
+  public LongObjectMap() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize the number of mappings the map can hold without resizing.
+   */
+  public LongObjectMap(int expectedSize) {
+    int minCapacity = Math.max(4, (int) (expectedSize / MAX_LOAD_FACTOR) + 1);
+    allocate(Integer.highestOneBit(minCapacity * 2 - 1));
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  public boolean isEmpty() {
+    return mSize == 0;
+  }
+
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * @return The value mapped to the given key, or null if there is none.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    int slot = slotOf(key);
+    while (mValues[slot] != null) {
+      if (mKeys[slot] == key) {
+        return (V) mValues[slot];
+      }
+      slot = (slot + 1) & mMask;
+    }
+    return null;
+  }
+
+  /**
+   * Maps the given key to the given value.
+   *
+   * @return The value previously mapped to the key, or null if there was none.
+   */
+  @Nullable
+  public V put(long key, V value) {
+    return put(key, value, true);
+  }
+
+  /**
+   * Maps the given key to the given value, unless the key is already mapped.
+   *
+   * @return The value currently mapped to the key, or null if the new value was added.
+   */
+  @Nullable
+  public V putIfAbsent(long key, V value) {
+    return put(key, value, false);
+  }
+
+  /**
+   * Removes the mapping for the given key.
+   *
+   * @return The removed value, or null if there was no mapping for the key.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V remove(long key) {
+    int slot = slotOf(key);
+    while (mValues[slot] != null) {
+      if (mKeys[slot] == key) {
+        V removed = (V) mValues[slot];
+        closeGap(slot);
+        mSize--;
+        return removed;
+      }
+      slot = (slot + 1) & mMask;
+    }
+    return null;
+  }
+
+  public void clear() {
+    Arrays.fill(mValues, null);
+    mSize = 0;
+  }
+
+  /**
+   * @return The number of slots. Together with {@link #valueAt(int)} this allows iterating over
+   * the map, or parts of it, without allocating.
+   */
+  public int capacity() {
+    return mValues.length;
+  }
+
+  /**
+   * @return The value in the given slot, or null if the slot is free.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V valueAt(int slot) {
+    return (V) mValues[slot];
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private V put(long key, V value, boolean replace) {
+    if (value == null) {
+      throw new NullPointerException("Null values are not supported");
+    }
+    int slot = slotOf(key);
+    while (mValues[slot] != null) {
+      if (mKeys[slot] == key) {
+        V previous = (V) mValues[slot];
+        if (replace) {
+          mValues[slot] = value;
+        }
+        return previous;
+      }
+      slot = (slot + 1) & mMask;
+    }
+    mKeys[slot] = key;
+    mValues[slot] = value;
+    if (++mSize > mResizeThreshold) {
+      rehash(mValues.length * 2);
+    }
+    return null;
+  }
+
+  /**
+   * Frees the given slot and moves following entries of the same probe sequence back, so that
+   * lookups never stop early at the freed slot.
+   */
+  private void closeGap(int gap) {
+    int slot = (gap + 1) & mMask;
+    while (mValues[slot] != null) {
+      int home = slotOf(mKeys[slot]);
+      // Move the entry if its home slot is not cyclically within (gap, slot].
+      if (((slot - home) & mMask) >= ((slot - gap) & mMask)) {
+        mKeys[gap] = mKeys[slot];
+        mValues[gap] = mValues[slot];
+        gap = slot;
+      }
+      slot = (slot + 1) & mMask;
+    }
+    mValues[gap] = null;
+  }
+
+  private void rehash(int newCapacity) {
+    long[] oldKeys = mKeys;
+    Object[] oldValues = mValues;
+    allocate(newCapacity);
+    for (int i = 0; i < oldValues.length; ++i) {
+      if (oldValues[i] != null) {
+        int slot = slotOf(oldKeys[i]);
+        while (mValues[slot] != null) {
+          slot = (slot + 1) & mMask;
+        }
+        mKeys[slot] = oldKeys[i];
+        mValues[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    mKeys = new long[capacity];
+    mValues = new Object[capacity];
+    mMask = capacity - 1;
+    mResizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+  }
+
+  private int slotOf(long key) {
+    // Spread the bits, the keys are often small or similar numbers.
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mMask;
+  }
+}
@@ -16,30 +16,185 @@
 
 package com.s13g.idioma.data;
 
-import java.util.Random;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Get a bin number chosen randomly, with weights of the different bins taken into account. A
- * lower bin therefore will have a higher chance of being selected than a higher bin.
+ * Get a bin number chosen randomly, with weights of the different bins taken into account. By
+ * default a lower bin has a higher chance of being selected than a higher bin.
+ * <p>
+ * The number of bins and their weights are configured through the system property
+ * {@value #WEIGHTS_PROPERTY}, a comma separated list with one positive weight per bin. Bins that
+ * are empty can be excluded from the draw, in which case the remaining bins keep their relative
+ * weights.
+ * <p>
+ * Draws use the alias method and are therefore O(1), regardless of the number of bins. Alias
+ * tables are built for every set of non-empty bins and cached, so they are only rebuilt when the
+ * set of non-empty bins changes. Instances are thread-safe.
  */
 public class RandomBinPicker {
+  public static final String WEIGHTS_PROPERTY = "idioma.bins.weights";
+  private static final String DEFAULT_WEIGHTS = "16,8,4,2,1";
+  /**
+   * The set of non-empty bins is passed as a bit mask.
+   */
+  private static final int MAX_BINS = 64;
+  /**
+   * Number of alias tables kept. Different filters lead to different sets of non-empty bins.
+   */
+  private static final int NUM_CACHED_TABLES = 16;
+
+  private final int[] mWeights;
+  private final long mAllBins;
+  /**
+   * Alias tables for the sets of non-empty bins seen last, indexed by a hash of the set. The
+   * tables are replaced, never modified.
+   */
+  private final AtomicReferenceArray<AliasTable> mTables =
+      new AtomicReferenceArray<>(NUM_CACHED_TABLES);
+
+  /**
+   * Creates a picker with the configured weights.
+   */
+  public RandomBinPicker() {
+    this(parseWeights(System.getProperty(WEIGHTS_PROPERTY, DEFAULT_WEIGHTS)));
+  }
+
+  /**
+   * @param weights one positive weight per bin.
+   */
+  public RandomBinPicker(int... weights) {
+    if (weights.length == 0 || weights.length > MAX_BINS) {
+      throw new IllegalArgumentException("Need between 1 and " + MAX_BINS + " bins, got " +
+          weights.length);
+    }
+    for (int weight : weights) {
+      if (weight <= 0) {
+        throw new IllegalArgumentException("Bin weights must be positive, got " + weight);
+      }
+    }
+    mWeights = weights.clone();
+    mAllBins = weights.length == MAX_BINS ? -1L : (1L << weights.length) - 1;
+  }
+
+  /**
+   * Parses a comma separated list of bin weights, e.g. "16,8,4,2,1".
+   */
+  static int[] parseWeights(String weights) {
+    String[] parts = weights.split(",");
+    int[] result = new int[parts.length];
+    for (int i = 0; i < parts.length; ++i) {
+      try {
+        result[i] = Integer.parseInt(parts[i].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid bin weights: '" + weights + "'", e);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return The number of bins to pick from.
+   */
+  public int getNumBins() {
+    return mWeights.length;
+  }
+
+  /**
+   * @return The weight of the given bin.
+   */
+  public int getWeight(int bin) {
+    return mWeights[bin];
+  }
+
   /**
    * Picks a random bin, weighted by bin number.
    */
   public int getRandomBin() {
-    // 16 8 4 2 1 = 31
-    // Bins: 0000000000000000 11111111 2222 33 4
-    int r = (new Random()).nextInt(31);
-    if (r < 16) {
-      return 0;
-    } else if (r < 24) {
-      return 1;
-    } else if (r < 28) {
-      return 2;
-    } else if (r < 30) {
-      return 3;
-    } else {
-      return 4;
+    return getRandomBin(mAllBins);
+  }
+
+  /**
+   * Picks a random bin out of the given ones, weighted by bin number.
+   *
+   * @param nonEmptyBins bit mask of the bins to pick from, bit i representing bin i.
+   * @return The picked bin, or -1 if the mask contains no bins.
+   */
+  public int getRandomBin(long nonEmptyBins) {
+    nonEmptyBins &= mAllBins;
+    if (nonEmptyBins == 0) {
+      return -1;
+    }
+    int slot = (int) ((nonEmptyBins * 0x9E3779B97F4A7C15L) >>> 60) & (NUM_CACHED_TABLES - 1);
+    AliasTable table = mTables.get(slot);
+    if (table == null || table.bins != nonEmptyBins) {
+      // Racing threads might build the same table twice, which is harmless.
+      table = AliasTable.create(mWeights, nonEmptyBins);
+      mTables.set(slot, table);
+    }
+    return table.pick(ThreadLocalRandom.current());
+  }
+
+  /**
+   * Vose's alias table: Column i is picked uniformly, then either i itself is returned, with the
+   * probability stored for it, or its alias.
+   */
+  private static class AliasTable {
+    final long bins;
+    final double[] probability;
+    final int[] alias;
+
+    private AliasTable(long bins, double[] probability, int[] alias) {
+      this.bins = bins;
+      this.probability = probability;
+      this.alias = alias;
+    }
+
+    static AliasTable create(int[] weights, long bins) {
+      int n = weights.length;
+      long totalWeight = 0;
+      for (int i = 0; i < n; ++i) {
+        if ((bins & (1L << i)) != 0) {
+          totalWeight += weights[i];
+        }
+      }
+      // Scale so that the average column holds exactly 1.
+      double[] scaled = new double[n];
+      Deque<Integer> small = new ArrayDeque<>();
+      Deque<Integer> large = new ArrayDeque<>();
+      for (int i = 0; i < n; ++i) {
+        scaled[i] = (bins & (1L << i)) != 0 ? (double) weights[i] * n / totalWeight : 0;
+        (scaled[i] < 1 ? small : large).push(i);
+      }
+      double[] probability = new double[n];
+      int[] alias = new int[n];
+      while (!small.isEmpty() && !large.isEmpty()) {
+        int less = small.pop();
+        int more = large.pop();
+        probability[less] = scaled[less];
+        alias[less] = more;
+        scaled[more] = scaled[more] + scaled[less] - 1;
+        (scaled[more] < 1 ? small : large).push(more);
+      }
+      // Whatever is left is 1 up to rounding errors.
+      while (!large.isEmpty()) {
+        probability[large.pop()] = 1;
+      }
+      while (!small.isEmpty()) {
+        int remaining = small.pop();
+        // Never let rounding errors make an excluded bin pickable.
+        boolean included = (bins & (1L << remaining)) != 0;
+        probability[remaining] = included ? 1 : 0;
+        alias[remaining] = included ? remaining : Long.numberOfTrailingZeros(bins);
+      }
+      return new AliasTable(bins, probability, alias);
+    }
+
+    int pick(ThreadLocalRandom random) {
+      int column = random.nextInt(probability.length);
+      return random.nextDouble() < probability[column] ? column : alias[column];
     }
   }
 }
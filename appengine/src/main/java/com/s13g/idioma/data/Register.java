@@ -27,6 +27,11 @@ public class Register {
   public static void ensureRegistered() {
     if (!isRegistered) {
       ObjectifyService.register(Translation.class);
+      ObjectifyService.register(DeckInfo.class);
+      ObjectifyService.register(SnapshotChunk.class);
+      ObjectifyService.register(SheetSyncState.class);
+      ObjectifyService.register(IngestionState.class);
+      ObjectifyService.register(UploadChunk.class);
       isRegistered = true;
     }
   }
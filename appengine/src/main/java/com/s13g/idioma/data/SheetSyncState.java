@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * What a deck was last synced from a Google Sheet with: the revision of the sheet and a
+ * fingerprint of every row. Stored in the namespace of the deck, one per sheet.
+ */
+@Entity
+public class SheetSyncState {
+  /**
+   * Fingerprints are stored in the entity itself, which is limited to 1 MB. For larger sheets
+   * only the revision is kept.
+   */
+  private static final int MAX_ROW_FINGERPRINTS = 120000;
+
+  @Id
+  String spreadsheetId;
+
+  String version;
+
+  /**
+   * The sorted row fingerprints, 8 bytes each. Null if there were too many.
+   */
+  @Nullable
+  byte[] rowFingerprints;
+
+  /**
+   * For Objectify.
+   */
+  private SheetSyncState() {
+  }
+
+  /**
+   * @param version         the revision of the sheet, as reported by Drive.
+   * @param rowFingerprints a fingerprint of the content of every row.
+   */
+  public SheetSyncState(String spreadsheetId, String version, long[] rowFingerprints) {
+    this.spreadsheetId = spreadsheetId;
+    this.version = version;
+    if (rowFingerprints.length <= MAX_ROW_FINGERPRINTS) {
+      long[] sorted = rowFingerprints.clone();
+      Arrays.sort(sorted);
+      ByteBuffer buffer = ByteBuffer.allocate(sorted.length * 8);
+      buffer.asLongBuffer().put(sorted);
+      this.rowFingerprints = buffer.array();
+    }
+  }
+
+  public String getSpreadsheetId() {
+    return spreadsheetId;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  /**
+   * @return The sorted row fingerprints, or null if they were not stored.
+   */
+  @Nullable
+  public long[] getRowFingerprints() {
+    if (rowFingerprints == null) {
+      return null;
+    }
+    long[] fingerprints = new long[rowFingerprints.length / 8];
+    ByteBuffer.wrap(rowFingerprints).asLongBuffer().get(fingerprints);
+    return fingerprints;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.google.common.base.Charsets;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes translations into a compact, compressed binary form and back.
+ * <p>
+ * All strings are stored once in a string table, translations refer to them by index. Sources,
+ * translations and notes repeat a lot across a deck (every pair exists in both directions), so
+ * this is considerably smaller than the entities, and decoding is a single sequential read.
+ */
+class SnapshotCodec {
+  private static final int MAGIC = 0x49444f4d;
+  /**
+   * Increment whenever the format changes. Snapshots in other formats are ignored.
+   */
+  private static final int FORMAT_VERSION = 2;
+  private static final int NO_STRING = -1;
+
+  private SnapshotCodec() {
+  }
+
+  static byte[] encode(Collection<Translation> translations) {
+    Map<String, Integer> stringIndexes = new HashMap<>();
+    List<String> strings = new ArrayList<>();
+    for (Translation translation : translations) {
+      addString(translation.source, stringIndexes, strings);
+      addString(translation.translated, stringIndexes, strings);
+      addString(translation.note, stringIndexes, strings);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new DeflaterOutputStream(bytes, deflater)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(strings.size());
+      for (String string : strings) {
+        byte[] utf8 = string.getBytes(Charsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+      }
+      out.writeInt(translations.size());
+      for (Translation translation : translations) {
+        out.writeLong(translation.hash);
+        out.writeInt(indexOf(translation.source, stringIndexes));
+        out.writeInt(indexOf(translation.translated, stringIndexes));
+        out.writeInt(indexOf(translation.note, stringIndexes));
+        out.writeByte(translation.getFlagSignature());
+        out.writeInt(translation.bin);
+        out.writeInt(translation.numRepliesCorrect);
+        out.writeInt(translation.numRepliesIncorrect);
+        out.writeLong(translation.modifiedMillis);
+        out.writeLong(translation.lastAnsweredMillis);
+      }
+    } catch (IOException e) {
+      // Cannot happen when writing to memory.
+      throw new IllegalStateException(e);
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @throws IOException if the data is corrupt or in a different format.
+   */
+  static List<Translation> decode(byte[] data) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(data))))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a snapshot");
+      }
+      int formatVersion = in.readInt();
+      if (formatVersion != FORMAT_VERSION) {
+        throw new IOException("Unsupported snapshot format " + formatVersion);
+      }
+      String[] strings = new String[checkCount(in.readInt())];
+      for (int i = 0; i < strings.length; ++i) {
+        byte[] utf8 = new byte[checkCount(in.readInt())];
+        in.readFully(utf8);
+        strings[i] = new String(utf8, Charsets.UTF_8);
+      }
+      int numTranslations = checkCount(in.readInt());
+      List<Translation> translations = new ArrayList<>(numTranslations);
+      for (int i = 0; i < numTranslations; ++i) {
+        Translation translation = new Translation();
+        translation.hash = in.readLong();
+        translation.source = stringAt(strings, in.readInt());
+        translation.translated = stringAt(strings, in.readInt());
+        translation.note = stringAt(strings, in.readInt());
+        int flags = in.readByte();
+        translation.disabled = (flags & Translation.FLAG_DISABLED) != 0;
+        translation.important = (flags & Translation.FLAG_IMPORTANT) != 0;
+        translation.fromConversation = (flags & Translation.FLAG_FROM_CONVERSATION) != 0;
+        translation.reversed = (flags & Translation.FLAG_REVERSED) != 0;
+        translation.bin = in.readInt();
+        translation.numRepliesCorrect = in.readInt();
+        translation.numRepliesIncorrect = in.readInt();
+        translation.modifiedMillis = in.readLong();
+        translation.lastAnsweredMillis = in.readLong();
+        translations.add(translation);
+      }
+      return translations;
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Corrupt snapshot", e);
+    }
+  }
+
+  private static void addString(@Nullable String string, Map<String, Integer> stringIndexes,
+                                List<String> strings) {
+    if (string != null && !stringIndexes.containsKey(string)) {
+      stringIndexes.put(string, strings.size());
+      strings.add(string);
+    }
+  }
+
+  private static int indexOf(@Nullable String string, Map<String, Integer> stringIndexes) {
+    return string != null ? stringIndexes.get(string) : NO_STRING;
+  }
+
+  @Nullable
+  private static String stringAt(String[] strings, int index) {
+    return index == NO_STRING ? null : strings[index];
+  }
+
+  private static int checkCount(int count) throws IOException {
+    if (count < 0) {
+      throw new IOException("Corrupt snapshot");
+    }
+    return count;
+  }
+}
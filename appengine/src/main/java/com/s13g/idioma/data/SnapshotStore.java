@@ -0,0 +1,316 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.google.appengine.api.NamespaceManager;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.s13g.idioma.metrics.Histogram;
+import com.s13g.idioma.metrics.Metrics;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Stores snapshots of a deck's translations in its datastore namespace, so that a new instance
+ * can load a deck with a few large reads instead of a query over all its translations.
+ * <p>
+ * A snapshot is split into {@link SnapshotChunk}s and described by the {@link DeckInfo} of the
+ * deck. The chunks are written first under a new snapshot ID, then the deck info is switched
+ * over, so a concurrent load sees either the old or the new snapshot completely. The chunks of
+ * the old snapshot are deleted afterwards.
+ * <p>
+ * Answers are not written to the snapshot. Instead, translations modified after the snapshot
+ * was taken are read from the datastore when loading it, which includes added ones. Removing
+ * translations increments the structure version of the deck, which invalidates the snapshot.
+ */
+class SnapshotStore {
+  private static final Logger LOG = Logger.getLogger("SnapshotStore");
+
+  /**
+   * Stays below the entity size limit of 1 MB.
+   */
+  private static final int CHUNK_SIZE = 900 * 1024;
+  /**
+   * Translations written up to this long before a snapshot was taken are read again when loading
+   * it, to tolerate clock differences between instances.
+   */
+  private static final long CLOCK_MARGIN_MS = 60 * 1000;
+  /**
+   * If at least this many translations were modified since the snapshot was taken, a new one is
+   * written after loading, so the next load reads fewer of them.
+   */
+  private static final int MIN_DELTA_FOR_REWRITE = 1000;
+
+  private static final String DURATION_METRIC = "idioma_snapshot_duration_seconds";
+  private static final String DURATION_HELP = "Time spent reading and writing deck snapshots.";
+  private static final Histogram sLoadDuration =
+      Metrics.get().latencyHistogram(DURATION_METRIC, DURATION_HELP, "operation", "load");
+  private static final Histogram sSaveDuration =
+      Metrics.get().latencyHistogram(DURATION_METRIC, DURATION_HELP, "operation", "save");
+
+  /**
+   * The datastore namespace of the deck.
+   */
+  private final String mNamespace;
+
+  SnapshotStore(String deckId) {
+    mNamespace = deckId;
+  }
+
+  /**
+   * Loads the translations from the snapshot of the deck, including all changes made since it
+   * was taken.
+   *
+   * @return The translations or null, if there is no valid snapshot.
+   */
+  @Nullable
+  Collection<Translation> load(TranslationsUtil translationsUtil) {
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      DeckInfo info = ofy().load().type(DeckInfo.class).id(DeckInfo.ID).now();
+      if (info == null || info.snapshotId == 0 ||
+          info.snapshotStructureVersion != info.structureVersion) {
+        LOG.info("No valid snapshot for deck '" + mNamespace + "'.");
+        return null;
+      }
+      List<Translation> translations = SnapshotCodec.decode(readChunks(info));
+
+      long deltaStartMillis = System.currentTimeMillis();
+      List<Translation> modified =
+          translationsUtil.getModifiedSince(info.snapshotCreatedMillis - CLOCK_MARGIN_MS);
+      List<Translation> result = merge(translations, modified);
+      LOG.info(String.format("Loaded snapshot of deck '%s' with %d translations, %d modified.",
+          mNamespace, result.size(), modified.size()));
+
+      if (modified.size() >= Math.max(MIN_DELTA_FOR_REWRITE, result.size() / 10)) {
+        save(result, info.structureVersion, deltaStartMillis);
+      }
+      return result;
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "Cannot load snapshot of deck '" + mNamespace + "'.", e);
+      return null;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sLoadDuration.observeSince(start);
+    }
+  }
+
+  /**
+   * @return The translations of the snapshot, with the modified ones replacing those of the same
+   * hash. Modified translations that are not part of the snapshot were added after it was taken.
+   */
+  static List<Translation> merge(List<Translation> snapshot, List<Translation> modified) {
+    LongObjectMap<Translation> byHash = new LongObjectMap<>(snapshot.size());
+    for (Translation translation : snapshot) {
+      byHash.put(translation.hash, translation);
+    }
+    List<Translation> result = new ArrayList<>(snapshot.size() + modified.size());
+    for (Translation translation : modified) {
+      if (byHash.put(translation.hash, translation) == null) {
+        result.add(translation);
+      }
+    }
+    for (Translation translation : snapshot) {
+      result.add(byHash.get(translation.hash));
+    }
+    return result;
+  }
+
+  /**
+   * @return The current structure version of the deck. Read it before reading the translations
+   * a snapshot is taken of.
+   */
+  long getStructureVersion() {
+    String previousNamespace = enterNamespace();
+    try {
+      DeckInfo info = ofy().load().type(DeckInfo.class).id(DeckInfo.ID).now();
+      return info != null ? info.structureVersion : 0;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Marks the current snapshot of the deck as stale. Call this after translations were removed.
+   */
+  void incrementStructureVersion() {
+    String previousNamespace = enterNamespace();
+    try {
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          DeckInfo info = ofy().load().type(DeckInfo.class).id(DeckInfo.ID).now();
+          if (info == null) {
+            info = new DeckInfo();
+          }
+          info.structureVersion++;
+          ofy().save().entity(info).now();
+        }
+      });
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Stores a snapshot of the given translations, unless translations were removed since the given
+   * structure version or the stored snapshot is newer.
+   *
+   * @param structureVersion the structure version read before reading the translations.
+   * @param createdMillis    when the translations were read from the datastore. Translations
+   *                         modified afterwards, e.g. by other instances, are read from the
+   *                         datastore when loading the snapshot. Never pass a later time.
+   */
+  void save(Collection<Translation> translations, final long structureVersion,
+            final long createdMillis) {
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      byte[] data = SnapshotCodec.encode(translations);
+      final long snapshotId = nextSnapshotId();
+      final int numChunks = Math.max(1, (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+      List<SnapshotChunk> chunks = new ArrayList<>(numChunks);
+      for (int i = 0; i < numChunks; ++i) {
+        SnapshotChunk chunk = new SnapshotChunk();
+        chunk.id = SnapshotChunk.createId(snapshotId, i);
+        chunk.snapshotId = snapshotId;
+        chunk.data = Arrays.copyOfRange(data, i * CHUNK_SIZE,
+            Math.min(data.length, (i + 1) * CHUNK_SIZE));
+        chunks.add(chunk);
+      }
+      ofy().save().entities(chunks).now();
+
+      final boolean[] saved = new boolean[1];
+      final DeckInfo[] previous = new DeckInfo[1];
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          DeckInfo info = ofy().load().type(DeckInfo.class).id(DeckInfo.ID).now();
+          if (info == null) {
+            info = new DeckInfo();
+          }
+          saved[0] = info.structureVersion == structureVersion &&
+              info.snapshotCreatedMillis <= createdMillis;
+          if (saved[0]) {
+            previous[0] = new DeckInfo();
+            previous[0].snapshotId = info.snapshotId;
+            previous[0].snapshotNumChunks = info.snapshotNumChunks;
+            info.snapshotId = snapshotId;
+            info.snapshotStructureVersion = structureVersion;
+            info.snapshotCreatedMillis = createdMillis;
+            info.snapshotNumChunks = numChunks;
+            ofy().save().entity(info).now();
+          }
+        }
+      });
+      if (saved[0]) {
+        LOG.info(String.format("Saved snapshot of deck '%s' with %d translations in %d bytes.",
+            mNamespace, translations.size(), data.length));
+        // Loads that read the deck info before the switch fall back to reading all translations.
+        deleteChunks(previous[0].snapshotId, previous[0].snapshotNumChunks);
+      } else {
+        LOG.info("Deck '" + mNamespace + "' changed or has a newer snapshot, discarding this one.");
+        deleteChunks(snapshotId, numChunks);
+      }
+    } catch (RuntimeException e) {
+      // The deck can still be loaded without a snapshot.
+      LOG.log(Level.WARNING, "Cannot save snapshot of deck '" + mNamespace + "'.", e);
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sSaveDuration.observeSince(start);
+    }
+  }
+
+  /**
+   * Must be called inside the namespace of the deck.
+   */
+  private byte[] readChunks(DeckInfo info) throws IOException {
+    List<Key<SnapshotChunk>> keys = getChunkKeys(info.snapshotId, info.snapshotNumChunks);
+    Map<Key<SnapshotChunk>, SnapshotChunk> chunks = ofy().load().keys(keys);
+    int size = 0;
+    for (Key<SnapshotChunk> key : keys) {
+      SnapshotChunk chunk = chunks.get(key);
+      if (chunk == null || chunk.snapshotId != info.snapshotId || chunk.data == null) {
+        // Deleted, since a newer snapshot was completed meanwhile.
+        throw new IOException("Missing chunk " + key.getName());
+      }
+      size += chunk.data.length;
+    }
+    byte[] data = new byte[size];
+    int offset = 0;
+    for (Key<SnapshotChunk> key : keys) {
+      byte[] chunkData = chunks.get(key).data;
+      System.arraycopy(chunkData, 0, data, offset, chunkData.length);
+      offset += chunkData.length;
+    }
+    return data;
+  }
+
+  /**
+   * Must be called inside the namespace of the deck.
+   */
+  private void deleteChunks(long snapshotId, int numChunks) {
+    if (snapshotId == 0) {
+      return;
+    }
+    try {
+      ofy().delete().keys(getChunkKeys(snapshotId, numChunks)).now();
+    } catch (RuntimeException e) {
+      // Only wastes some space.
+      LOG.log(Level.WARNING, "Cannot delete chunks of snapshot " + snapshotId + ".", e);
+    }
+  }
+
+  private static List<Key<SnapshotChunk>> getChunkKeys(long snapshotId, int numChunks) {
+    List<Key<SnapshotChunk>> keys = new ArrayList<>(numChunks);
+    for (int i = 0; i < numChunks; ++i) {
+      keys.add(Key.create(SnapshotChunk.class, SnapshotChunk.createId(snapshotId, i)));
+    }
+    return keys;
+  }
+
+  private static long nextSnapshotId() {
+    long id;
+    do {
+      id = ThreadLocalRandom.current().nextLong();
+    } while (id == 0);
+    return id;
+  }
+
+  /**
+   * Switches to the namespace of this deck.
+   *
+   * @return The previous namespace, to be restored when done.
+   */
+  private String enterNamespace() {
+    String previousNamespace = NamespaceManager.get();
+    NamespaceManager.set(mNamespace);
+    return previousNamespace;
+  }
+}
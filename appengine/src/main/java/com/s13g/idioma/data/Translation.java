@@ -16,13 +16,18 @@
 
 package com.s13g.idioma.data;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
 
 import javax.annotation.Nullable;
+import java.text.Normalizer;
 
 /**
  * A translation item.
@@ -30,6 +35,36 @@ import javax.annotation.Nullable;
 @Entity
 @Cache
 public class Translation {
+  /**
+   * Value of {@link #binPosition} while the translation is not part of an {@link IndexedBin}.
+   */
+  static final int NOT_IN_BIN = -1;
+  /**
+   * Value of {@link #duePosition} while the translation is not part of a {@link DueTimeHeap}.
+   */
+  static final int NOT_SCHEDULED = -1;
+
+  /**
+   * Bits of the {@link #getFlagSignature() flag signature}.
+   */
+  static final int FLAG_DISABLED = 1;
+  static final int FLAG_IMPORTANT = 1 << 1;
+  static final int FLAG_FROM_CONVERSATION = 1 << 2;
+  static final int FLAG_REVERSED = 1 << 3;
+  /**
+   * The number of different flag signatures.
+   */
+  static final int NUM_FLAG_SIGNATURES = 1 << 4;
+
+  /**
+   * Version of {@link #computeHash(String, String, boolean)}. Decks whose translations were
+   * hashed with an older version are migrated when they are loaded.
+   *
+   * @see HashMigration
+   */
+  static final int HASH_VERSION = 1;
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
   @Id
   public Long hash;
 
@@ -81,15 +116,95 @@ public class Translation {
   int bin;
 
   /**
-   * Counts the number of times the user got the response incorrect.
+   * Counts the number of times the user got the response correct.
    */
   int numRepliesCorrect;
 
   /**
-   * Counts the number of times the user got the response correct.
+   * Counts the number of times the user got the response incorrect.
    */
   int numRepliesIncorrect;
 
+  /**
+   * When this translation was last written to the datastore, in milliseconds since the epoch.
+   * Lets a snapshot of the deck catch up with the answers given after it was taken.
+   */
+  @Index
+  long modifiedMillis;
+
+  /**
+   * When the user last answered this translation, in milliseconds since the epoch. 0 if never,
+   * or only before this was recorded.
+   */
+  long lastAnsweredMillis;
+
+  /**
+   * The position of this item inside its in-memory {@link IndexedBin}. Not persisted.
+   */
+  @Ignore
+  int binPosition = NOT_IN_BIN;
+
+  /**
+   * The position of this item inside its in-memory {@link DueTimeHeap}. Not persisted.
+   */
+  @Ignore
+  int duePosition = NOT_SCHEDULED;
+
+  /**
+   * @return The bin this item is currently in.
+   */
+  public int getBin() {
+    return bin;
+  }
+
+  /**
+   * @return How many times the user got the response correct.
+   */
+  public int getNumRepliesCorrect() {
+    return numRepliesCorrect;
+  }
+
+  /**
+   * @return How many times the user got the response incorrect.
+   */
+  public int getNumRepliesIncorrect() {
+    return numRepliesIncorrect;
+  }
+
+  /**
+   * @return A copy of this translation with all persisted fields, not part of any bin.
+   */
+  Translation copy() {
+    Translation copy = new Translation();
+    copy.hash = hash;
+    copy.source = source;
+    copy.translated = translated;
+    copy.note = note;
+    copy.reversed = reversed;
+    copy.fromConversation = fromConversation;
+    copy.disabled = disabled;
+    copy.important = important;
+    copy.bin = bin;
+    copy.numRepliesCorrect = numRepliesCorrect;
+    copy.numRepliesIncorrect = numRepliesIncorrect;
+    copy.modifiedMillis = modifiedMillis;
+    copy.lastAnsweredMillis = lastAnsweredMillis;
+    return copy;
+  }
+
+  /**
+   * @return A copy of this translation with only its hash and flags, like the ones returned by
+   * {@link TranslationsUtil#getSetForDiff()}. Enough to find out what an ingestion changes.
+   */
+  public Translation toDiffRecord() {
+    Translation record = new Translation();
+    record.hash = hash;
+    record.fromConversation = fromConversation;
+    record.disabled = disabled;
+    record.important = important;
+    return record;
+  }
+
   /**
    * Sets the 'hash' property of this translation item.
    */
@@ -97,7 +212,29 @@ public class Translation {
     if (hash != null && hash != 0) {
       throw new RuntimeException("Hash already set for item " + source + "/" + translated);
     }
-    hash = (long) Objects.hashCode(source, translated);
+    hash = computeHash(source, translated, reversed);
+  }
+
+  /**
+   * Computes the 64 bit hash identifying a translation. The strings are trimmed and normalized
+   * first, so that the same text in another Unicode form yields the same translation. The
+   * direction is part of the hash, so a reversed translation never collides with a regular one
+   * of the same words.
+   */
+  static long computeHash(@Nullable String source, @Nullable String translated,
+                          boolean reversed) {
+    long hash = HASH_FUNCTION.newHasher()
+        .putString(normalize(source), Charsets.UTF_8)
+        .putChar('\0')
+        .putString(normalize(translated), Charsets.UTF_8)
+        .putBoolean(reversed)
+        .hash().asLong();
+    // Zero is not a valid datastore ID.
+    return hash != 0 ? hash : 1;
+  }
+
+  private static String normalize(@Nullable String string) {
+    return string == null ? "" : Normalizer.normalize(string.trim(), Normalizer.Form.NFC);
   }
 
   /**
@@ -107,13 +244,30 @@ public class Translation {
     return Objects.hashCode(this.fromConversation, this.disabled, this.important);
   }
 
+  /**
+   * @return The flags of this translation as a bit mask of the FLAG_* constants.
+   */
+  int getFlagSignature() {
+    return (disabled ? FLAG_DISABLED : 0) |
+        (important ? FLAG_IMPORTANT : 0) |
+        (fromConversation ? FLAG_FROM_CONVERSATION : 0) |
+        (reversed ? FLAG_REVERSED : 0);
+  }
+
+  /**
+   * @return Whether {@link #updateFromIngested(Translation)} would change this translation.
+   */
+  boolean needsUpdateFrom(Translation ingested) {
+    return this.getExtraHash() != ingested.getExtraHash();
+  }
+
   /**
    * Updates the data in this translation with the data from the ingested translation, ensuring
    * that data that needs to be persisted (like bin number) will keep persisted.
    */
   @Nullable
   Translation updateFromIngested(Translation ingested) {
-    if (this.getExtraHash() == ingested.getExtraHash()) {
+    if (!needsUpdateFrom(ingested)) {
       // Nothing to update.
       return null;
     }
@@ -127,12 +281,11 @@ public class Translation {
 
   @Override
   public int hashCode() {
-    // This works because our hash is an integer in reality. See #setHash.
-    return (int) (long) hash;
+    return hash == null ? 0 : (int) (hash ^ (hash >>> 32));
   }
 
   @Override
   public boolean equals(Object other) {
-    return other != null && other instanceof Translation && other.hashCode() == this.hashCode();
+    return other instanceof Translation && Objects.equal(((Translation) other).hash, this.hash);
   }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import java.util.Arrays;
+
+/**
+ * Restricts which translations are drawn, based on their flags. Every flag can be required to
+ * be set, required to be unset, or be ignored. Immutable.
+ * <p>
+ * Bins partitions its translations by their flags, so a filter simply selects the partitions to
+ * draw from and never has to look at individual translations.
+ */
+public class TranslationFilter {
+  /**
+   * Matches all translations.
+   */
+  public static final TranslationFilter ALL = new TranslationFilter(0, 0);
+  /**
+   * Matches all translations that are not disabled. This is what the quiz asks by default.
+   */
+  public static final TranslationFilter ENABLED = ALL.withDisabled(false);
+
+  /**
+   * The flags this filter cares about.
+   */
+  private final int mMask;
+  /**
+   * The required values of the flags in the mask.
+   */
+  private final int mValue;
+  /**
+   * All flag signatures matching this filter.
+   */
+  private final int[] mSignatures;
+
+  private TranslationFilter(int mask, int value) {
+    mMask = mask;
+    mValue = value;
+    int[] signatures = new int[Translation.NUM_FLAG_SIGNATURES];
+    int numSignatures = 0;
+    for (int signature = 0; signature < Translation.NUM_FLAG_SIGNATURES; ++signature) {
+      if (matches(signature)) {
+        signatures[numSignatures++] = signature;
+      }
+    }
+    mSignatures = Arrays.copyOf(signatures, numSignatures);
+  }
+
+  public TranslationFilter withDisabled(boolean disabled) {
+    return with(Translation.FLAG_DISABLED, disabled);
+  }
+
+  public TranslationFilter withImportant(boolean important) {
+    return with(Translation.FLAG_IMPORTANT, important);
+  }
+
+  public TranslationFilter withFromConversation(boolean fromConversation) {
+    return with(Translation.FLAG_FROM_CONVERSATION, fromConversation);
+  }
+
+  public TranslationFilter withReversed(boolean reversed) {
+    return with(Translation.FLAG_REVERSED, reversed);
+  }
+
+  private TranslationFilter with(int flag, boolean set) {
+    return new TranslationFilter(mMask | flag, set ? mValue | flag : mValue & ~flag);
+  }
+
+  /**
+   * @return Whether translations with the given flag signature match this filter.
+   */
+  boolean matches(int signature) {
+    return (signature & mMask) == mValue;
+  }
+
+  public boolean matches(Translation translation) {
+    return matches(translation.getFlagSignature());
+  }
+
+  /**
+   * @return All flag signatures matching this filter. Must not be modified.
+   */
+  int[] getSignatures() {
+    return mSignatures;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof TranslationFilter &&
+        ((TranslationFilter) other).mMask == mMask &&
+        ((TranslationFilter) other).mValue == mValue;
+  }
+
+  @Override
+  public int hashCode() {
+    return mMask * 31 + mValue;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TranslationFilter[mask=%s, value=%s]",
+        Integer.toBinaryString(mMask), Integer.toBinaryString(mValue));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All translations with the same source, along with the precomputed TranslationSet of each of
+ * them. Immutable, adding or removing a translation creates a new group. That way drawing a
+ * translation does not need to allocate anything for its alternatives.
+ */
+class TranslationGroup {
+  private final List<Translation> mTranslations;
+  /**
+   * The set of the translation with the same index.
+   */
+  private final TranslationSet[] mSets;
+
+  private TranslationGroup(List<Translation> translations) {
+    mTranslations = translations;
+    mSets = new TranslationSet[translations.size()];
+    for (int i = 0; i < mSets.length; ++i) {
+      mSets[i] = TranslationSet.from(translations.get(i), translations);
+    }
+  }
+
+  /**
+   * @param translations translations that all have the same source.
+   */
+  static TranslationGroup of(List<Translation> translations) {
+    return new TranslationGroup(new ArrayList<>(translations));
+  }
+
+  /**
+   * @return A group containing the translations of this one plus the given one.
+   */
+  TranslationGroup with(Translation translation) {
+    List<Translation> translations = new ArrayList<>(mTranslations.size() + 1);
+    translations.addAll(mTranslations);
+    translations.add(translation);
+    return new TranslationGroup(translations);
+  }
+
+  /**
+   * @return A group containing the translations of this one except the given one, or null if
+   * that would leave the group empty.
+   */
+  @Nullable
+  TranslationGroup without(Translation translation) {
+    List<Translation> translations = new ArrayList<>(mTranslations);
+    translations.removeAll(Collections.singleton(translation));
+    return translations.isEmpty() ? null : new TranslationGroup(translations);
+  }
+
+  int size() {
+    return mTranslations.size();
+  }
+
+  /**
+   * @return The set with the given translation as its main translation, or null if the
+   * translation is not part of this group.
+   */
+  @Nullable
+  TranslationSet getSet(Translation translation) {
+    for (int i = 0; i < mSets.length; ++i) {
+      if (mTranslations.get(i) == translation) {
+        return mSets[i];
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Classes implementing this interface can load complete translations, for when only some of
+ * their fields were loaded before.
+ */
+public interface TranslationLoader {
+  /**
+   * @return The translations with the given hashes, keyed by hash. Hashes that do not exist are
+   * left out.
+   */
+  Map<Long, Translation> loadComplete(Collection<Long> hashes);
+}
@@ -20,24 +20,60 @@ import com.google.common.base.Preconditions;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * For some translation sources there are multiple translations possible. For a selected
  * translation chosen from the bin, this set also includes the other valid translations.
+ * <p>
+ * Sets are immutable. Bins precomputes them, so they can be handed out without copying.
  */
 public class TranslationSet {
+  private static final char SEPARATOR = ',';
+
   public final Translation mainTranslation;
   /**
-   * Keyed by translation.
+   * Keyed by translation. Unmodifiable.
    */
   public final List<Translation> alternatives;
+  /**
+   * The translated texts of the alternatives, comma separated.
+   */
+  public final String altSolutions;
+  /**
+   * The hashes of the alternatives, comma separated.
+   */
+  public final String altSolutionHashes;
 
   private TranslationSet(Translation mainTranslation, List<Translation> alternatives) {
     Preconditions.checkArgument(!alternatives.contains(mainTranslation),
         "TranslationSet's main translation may not be part of the alternatives.");
     this.mainTranslation = mainTranslation;
-    this.alternatives = alternatives;
+    if (alternatives.isEmpty()) {
+      // The common case, most sources have a single translation. Share the empty values.
+      this.alternatives = Collections.emptyList();
+      this.altSolutions = "";
+      this.altSolutionHashes = "";
+      return;
+    }
+    this.alternatives = Collections.unmodifiableList(alternatives);
+
+    StringBuilder solutions = new StringBuilder();
+    StringBuilder hashes = new StringBuilder();
+    boolean first = true;
+    for (Translation alternative : alternatives) {
+      // Translated texts can be empty, so the builders' length does not tell.
+      if (!first) {
+        solutions.append(SEPARATOR);
+        hashes.append(SEPARATOR);
+      }
+      first = false;
+      solutions.append(alternative.translated);
+      hashes.append(alternative.hash);
+    }
+    this.altSolutions = solutions.toString();
+    this.altSolutionHashes = hashes.toString();
   }
 
   /**
@@ -54,7 +90,7 @@ public class TranslationSet {
     Preconditions.checkNotNull(mainTranslation);
     Preconditions.checkNotNull(allWithSameSource);
 
-    List<Translation> alternatives = new ArrayList<>();
+    List<Translation> alternatives = new ArrayList<>(allWithSameSource.size());
     for (Translation alternative : allWithSameSource) {
       if (!mainTranslation.equals(alternative)) {
         alternatives.add(alternative);
@@ -16,10 +16,19 @@
 
 package com.s13g.idioma.data;
 
+import com.google.appengine.api.NamespaceManager;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.s13g.idioma.metrics.Histogram;
+import com.s13g.idioma.metrics.Metrics;
+
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import static com.googlecode.objectify.ObjectifyService.ofy;
@@ -27,37 +36,320 @@ import static com.googlecode.objectify.ObjectifyService.ofy;
 /**
  * Utilities for managing Translations.
  */
-public class TranslationsUtil implements TranslationProvider, DataStoreUpdater {
+public class TranslationsUtil
+    implements TranslationProvider, TranslationLoader, DataStoreUpdater {
   private static final Logger LOG = Logger.getLogger("TranslationsUtil");
 
-  private static final int NUM_BINS = 5;
+  private static final String DURATION_METRIC = "idioma_datastore_call_duration_seconds";
+  private static final String DURATION_HELP = "Time spent in datastore calls.";
+  private static final String SIZE_METRIC = "idioma_datastore_batch_size";
+  private static final String SIZE_HELP = "Number of translations per datastore call.";
+  private static final Histogram sLoadDuration =
+      Metrics.get().latencyHistogram(DURATION_METRIC, DURATION_HELP, "operation", "load");
+  private static final Histogram sLoadForDiffDuration = Metrics.get().latencyHistogram(
+      DURATION_METRIC, DURATION_HELP, "operation", "load_for_diff");
+  private static final Histogram sPersistDuration =
+      Metrics.get().latencyHistogram(DURATION_METRIC, DURATION_HELP, "operation", "persist");
+  private static final Histogram sRemoveDuration =
+      Metrics.get().latencyHistogram(DURATION_METRIC, DURATION_HELP, "operation", "remove");
+  private static final Histogram sLoadSize =
+      Metrics.get().sizeHistogram(SIZE_METRIC, SIZE_HELP, "operation", "load");
+  private static final Histogram sLoadForDiffSize =
+      Metrics.get().sizeHistogram(SIZE_METRIC, SIZE_HELP, "operation", "load_for_diff");
+  private static final Histogram sPersistSize =
+      Metrics.get().sizeHistogram(SIZE_METRIC, SIZE_HELP, "operation", "persist");
+  private static final Histogram sRemoveSize =
+      Metrics.get().sizeHistogram(SIZE_METRIC, SIZE_HELP, "operation", "remove");
+
+  /**
+   * The datastore namespace holding the translations of the deck.
+   */
+  private final String mNamespace;
+  @Nullable
+  private final WriteProgressListener mProgressListener;
+
+  /**
+   * Accesses the translations of the default deck.
+   */
+  public TranslationsUtil() {
+    this(BinsCache.DEFAULT_DECK);
+  }
+
+  /**
+   * Accesses the translations of the given deck.
+   */
+  public TranslationsUtil(String deckId) {
+    this(deckId, null);
+  }
+
+  /**
+   * Accesses the translations of the given deck.
+   *
+   * @param progressListener notified about the progress of writes, e.g. during an ingestion.
+   */
+  public TranslationsUtil(String deckId, @Nullable WriteProgressListener progressListener) {
+    mNamespace = deckId;
+    mProgressListener = progressListener;
+  }
 
   @Override
   public Collection<Translation> getCompleteSet() throws TranslationProvidingException {
-    List<Translation> translations = ofy().load().type(Translation.class).list();
-    LOG.info("Loaded translations: " + translations.size());
-    return translations;
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      List<Translation> translations = ofy().load().type(Translation.class).list();
+      LOG.info("Loaded translations: " + translations.size());
+      sLoadSize.observe(translations.size());
+      return translations;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sLoadDuration.observeSince(start);
+    }
+  }
+
+  /**
+   * Loads all translations of the deck with only the fields needed to diff them against an
+   * ingestion: the hash and the flags that ingestions can change. Only the index entries are
+   * read, which is much less than the entities. The translations must not be persisted; load
+   * the {@link #loadComplete(Collection) complete} ones for that.
+   *
+   * @see IngestionUtil#ingest(Collection, Collection, DataStoreUpdater, TranslationLoader)
+   */
+  public List<Translation> getSetForDiff() {
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      // Needs the composite index in datastore-indexes.xml.
+      List<Translation> translations = ofy().load().type(Translation.class)
+          .project("fromConversation", "disabled", "important").list();
+      LOG.info("Loaded translations for diff: " + translations.size());
+      sLoadForDiffSize.observe(translations.size());
+      return translations;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sLoadForDiffDuration.observeSince(start);
+    }
+  }
+
+  /**
+   * @return The hashes of all translations of the deck, read with a keys-only query.
+   */
+  public Set<Long> getAllHashes() {
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      List<Key<Translation>> keys = ofy().load().type(Translation.class).keys().list();
+      Set<Long> hashes = new HashSet<>(keys.size() * 2);
+      for (Key<Translation> key : keys) {
+        hashes.add(key.getId());
+      }
+      sLoadForDiffSize.observe(hashes.size());
+      return hashes;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sLoadForDiffDuration.observeSince(start);
+    }
+  }
+
+  @Override
+  public Map<Long, Translation> loadComplete(Collection<Long> hashes) {
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      return ofy().load().type(Translation.class).ids(hashes);
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sLoadDuration.observeSince(start);
+      sLoadSize.observe(hashes.size());
+    }
   }
 
   @Override
   public void persist(Collection<Translation> translations) {
-    ofy().save().entities(translations).now();
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      long now = System.currentTimeMillis();
+      for (Translation translation : translations) {
+        translation.modifiedMillis = now;
+      }
+      new ChunkedWriter(mProgressListener).save(asList(translations));
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sPersistDuration.observeSince(start);
+      sPersistSize.observe(translations.size());
+    }
+  }
+
+  /**
+   * @return All translations written to the datastore at or after the given time.
+   */
+  List<Translation> getModifiedSince(long millis) {
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      List<Translation> translations =
+          ofy().load().type(Translation.class).filter("modifiedMillis >=", millis).list();
+      sLoadSize.observe(translations.size());
+      return translations;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sLoadDuration.observeSince(start);
+    }
   }
 
   @Override
   public void remove(Collection<Translation> translations) {
-    ofy().delete().entities(translations).now();
+    long start = System.nanoTime();
+    String previousNamespace = enterNamespace();
+    try {
+      new ChunkedWriter(mProgressListener).delete(asList(translations));
+      if (!translations.isEmpty()) {
+        // Snapshots would bring the removed translations back.
+        new SnapshotStore(mNamespace).incrementStructureVersion();
+      }
+    } finally {
+      NamespaceManager.set(previousNamespace);
+      sRemoveDuration.observeSince(start);
+      sRemoveSize.observe(translations.size());
+    }
   }
 
-  Bins getBinnedTranslations(RandomBinPicker binPicker) throws TranslationProvidingException {
-    ArrayList<List<Translation>> bins = new ArrayList<>(NUM_BINS);
-    for (int i = 0; i < NUM_BINS; ++i) {
-      bins.add(new LinkedList<Translation>());
+  /**
+   * @return Whether the translations of the deck are stored under a hash computed by an older
+   * version of {@link Translation#computeHash(String, String, boolean)}.
+   */
+  public boolean needsHashMigration() {
+    String previousNamespace = enterNamespace();
+    try {
+      DeckInfo info = ofy().load().type(DeckInfo.class).id(DeckInfo.ID).now();
+      return info == null || info.hashVersion < Translation.HASH_VERSION;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Moves the translations of the deck to their current hash, if they were stored under a hash
+   * computed by an older version of {@link Translation#computeHash(String, String, boolean)}.
+   * Answers still pending for the deck must have been written before.
+   *
+   * @return Whether any translations were moved.
+   * @see HashMigration
+   */
+  public boolean migrateHashesIfNecessary() throws TranslationProvidingException {
+    if (!needsHashMigration()) {
+      return false;
     }
-    for (Translation t : getCompleteSet()) {
-      bins.get(t.bin).add(t);
+    String previousNamespace = enterNamespace();
+    try {
+      HashMigration migration = HashMigration.of(getCompleteSet());
+      LOG.info(String.format("Migrating hashes of deck '%s': %d moved, %d old IDs removed.",
+          mNamespace, migration.toSave.size(), migration.toRemove.size()));
+      // Write the new IDs first, so that an interrupted migration loses nothing.
+      persist(migration.toSave);
+      remove(migration.toRemove);
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          DeckInfo info = ofy().load().type(DeckInfo.class).id(DeckInfo.ID).now();
+          if (info == null) {
+            info = new DeckInfo();
+          }
+          info.hashVersion = Translation.HASH_VERSION;
+          ofy().save().entity(info).now();
+        }
+      });
+      return !migration.toSave.isEmpty() || !migration.toRemove.isEmpty();
+    } finally {
+      NamespaceManager.set(previousNamespace);
     }
-    return new Bins(bins, this, binPicker);
+  }
+
+  /**
+   * @return What the deck was last synced with from the given sheet, or null if it never was.
+   */
+  @Nullable
+  public SheetSyncState getSheetSyncState(String spreadsheetId) {
+    String previousNamespace = enterNamespace();
+    try {
+      return ofy().load().type(SheetSyncState.class).id(spreadsheetId).now();
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Stores what the deck was synced with. Call this once the sync was written.
+   */
+  public void saveSheetSyncState(SheetSyncState state) {
+    String previousNamespace = enterNamespace();
+    try {
+      ofy().save().entity(state).now();
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Forgets what the deck was synced with, e.g. because it was ingested from another source. The
+   * next sync then compares against the whole deck again.
+   */
+  public void clearSheetSyncStates() {
+    String previousNamespace = enterNamespace();
+    try {
+      ofy().delete().keys(ofy().load().type(SheetSyncState.class).keys().list()).now();
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  private static List<Translation> asList(Collection<Translation> translations) {
+    return translations instanceof List ?
+        (List<Translation>) translations :
+        new ArrayList<>(translations);
+  }
+
+  /**
+   * Switches to the namespace of this deck.
+   *
+   * @return The previous namespace, to be restored when done.
+   */
+  private String enterNamespace() {
+    String previousNamespace = NamespaceManager.get();
+    NamespaceManager.set(mNamespace);
+    return previousNamespace;
+  }
+
+  /**
+   * Loads the translations of the deck from its snapshot, if there is a valid one. Otherwise
+   * loads all translations and stores a snapshot of them for the next time.
+   */
+  Bins getBinnedTranslations(RandomBinPicker binPicker, DataStoreUpdater updater)
+      throws TranslationProvidingException {
+    // Removing the old IDs of a migrated deck also invalidates its snapshot.
+    migrateHashesIfNecessary();
+    SnapshotStore snapshotStore = new SnapshotStore(mNamespace);
+    long structureVersion = snapshotStore.getStructureVersion();
+    long loadStartMillis = System.currentTimeMillis();
+    Collection<Translation> translations = snapshotStore.load(this);
+    if (translations == null) {
+      translations = getCompleteSet();
+      snapshotStore.save(translations, structureVersion, loadStartMillis);
+    }
+    return Bins.create(translations, updater, binPicker, loadStartMillis, structureVersion);
+  }
+
+  /**
+   * Stores a snapshot of the given Bins, so that the deck loads quickly next time. All answers
+   * given to the Bins must have been written to the datastore before.
+   * <p>
+   * The snapshot counts as taken when the Bins were loaded, so answers other instances wrote
+   * since then are still read from the datastore when loading it.
+   */
+  void saveSnapshot(Bins bins) {
+    new SnapshotStore(mNamespace).save(bins.copyTranslations(),
+        bins.getLoadedStructureVersion(), bins.getLoadedMillis());
   }
 
   /**
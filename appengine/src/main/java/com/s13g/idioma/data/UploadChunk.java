@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * A part of an uploaded file that is waiting to be ingested. Uploads are split up, since
+ * entities are limited to 1 MB.
+ */
+@Entity
+class UploadChunk {
+  /**
+   * The upload ID and the index of this chunk within the upload, see
+   * {@link #createId(String, int)}.
+   */
+  @Id
+  String id;
+
+  byte[] data;
+
+  static String createId(String uploadId, int index) {
+    return uploadId + "-" + index;
+  }
+}
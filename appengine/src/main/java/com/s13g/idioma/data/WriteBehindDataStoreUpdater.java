@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A DataStoreUpdater that does not write through to the underlying datastore right away, but
+ * collects the updated translations and writes them in batches.
+ * <p>
+ * Repeated updates of the same translation (keyed by hash) before the next flush are coalesced
+ * into a single write. A flush happens once the batch size is reached, when a persist call finds
+ * the oldest pending update to be older than the flush interval, or periodically if a scheduler
+ * was given. Without a scheduler, call {@link #flushIfDue()} regularly instead. Removals are
+ * written through immediately and drop pending updates for the removed translations.
+ */
+public class WriteBehindDataStoreUpdater implements DataStoreUpdater {
+  private static final Logger LOG = Logger.getLogger("WriteBehindUpdater");
+
+  private final DataStoreUpdater mDelegate;
+  private final int mMaxBatchSize;
+  private final long mFlushIntervalMillis;
+
+  /**
+   * Pending translations keyed by hash, in the order they were first updated. Guarded by this.
+   */
+  private final Map<Long, Translation> mPending = new LinkedHashMap<>();
+  /**
+   * When the oldest currently pending update was made. Guarded by this.
+   */
+  private long mOldestPendingMillis;
+  /**
+   * Once shut down, updates are written through right away. Guarded by this.
+   */
+  private boolean mShutDown;
+  /**
+   * Once closed, updates are dropped. Guarded by this.
+   */
+  private boolean mClosed;
+
+  private final AtomicLong mNumFlushed = new AtomicLong();
+  private final AtomicLong mNumCoalesced = new AtomicLong();
+  private final AtomicLong mNumBatches = new AtomicLong();
+
+  @Nullable
+  private final ScheduledFuture<?> mScheduledFlush;
+
+  /**
+   * @param delegate            the updater to eventually write the updates to.
+   * @param maxBatchSize        number of pending translations that triggers a flush.
+   * @param flushIntervalMillis maximum time an update should stay pending.
+   * @param scheduler           if given, used to periodically flush pending updates. Otherwise
+   *                            updates are only flushed by incoming persist calls.
+   */
+  public WriteBehindDataStoreUpdater(DataStoreUpdater delegate,
+                                     int maxBatchSize,
+                                     long flushIntervalMillis,
+                                     @Nullable ScheduledExecutorService scheduler) {
+    mDelegate = delegate;
+    mMaxBatchSize = Math.max(1, maxBatchSize);
+    mFlushIntervalMillis = flushIntervalMillis;
+    mScheduledFlush = scheduleFlush(scheduler);
+  }
+
+  @Override
+  public void persist(Collection<Translation> translations) {
+    List<Translation> batch = null;
+    synchronized (this) {
+      if (mClosed) {
+        LOG.warning(String.format("Dropping %d updates of a closed deck.", translations.size()));
+        return;
+      }
+      if (mShutDown) {
+        // Late callers still holding on to us must not leave anything pending.
+        batch = new ArrayList<>(translations);
+      }
+    }
+    if (batch != null) {
+      write(batch);
+      return;
+    }
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      if (mPending.isEmpty()) {
+        mOldestPendingMillis = now;
+      }
+      for (Translation translation : translations) {
+        if (mPending.put(translation.hash, translation) != null) {
+          mNumCoalesced.incrementAndGet();
+        }
+      }
+      if (mPending.size() >= mMaxBatchSize || now - mOldestPendingMillis >= mFlushIntervalMillis) {
+        batch = drainPending();
+      }
+    }
+    try {
+      write(batch);
+    } catch (RuntimeException ex) {
+      // The batch is pending again, there is no need to fail the caller.
+      LOG.log(Level.SEVERE, "Cannot write batch, will retry with the next flush.", ex);
+    }
+  }
+
+  @Override
+  public void remove(Collection<Translation> translations) {
+    discard(translations);
+    mDelegate.remove(translations);
+  }
+
+  /**
+   * Drops pending updates of the given translations, e.g. because they were removed from the
+   * datastore by other means.
+   */
+  synchronized void discard(Collection<Translation> translations) {
+    for (Translation translation : translations) {
+      mPending.remove(translation.hash);
+    }
+  }
+
+  /**
+   * Writes all pending updates to the underlying datastore.
+   */
+  public void flush() {
+    List<Translation> batch;
+    synchronized (this) {
+      batch = drainPending();
+    }
+    write(batch);
+  }
+
+  /**
+   * Stops the periodic flushing, if any, and writes all pending updates. Later updates are
+   * written through immediately.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      mShutDown = true;
+    }
+    if (mScheduledFlush != null) {
+      mScheduledFlush.cancel(false);
+    }
+    flush();
+  }
+
+  /**
+   * Like {@link #shutdown()}, but drops later updates instead of writing them, e.g. because the
+   * translations they refer to are about to be moved to other IDs.
+   */
+  public void close() {
+    synchronized (this) {
+      mClosed = true;
+    }
+    shutdown();
+  }
+
+  /**
+   * @return Counters about the writes handled by this updater.
+   */
+  public Statistics getStatistics() {
+    Statistics stats = new Statistics();
+    synchronized (this) {
+      stats.numPending = mPending.size();
+    }
+    stats.numFlushed = mNumFlushed.get();
+    stats.numCoalesced = mNumCoalesced.get();
+    stats.numBatches = mNumBatches.get();
+    return stats;
+  }
+
+  /**
+   * Writes all pending updates, if the oldest of them is older than the flush interval.
+   */
+  void flushIfDue() {
+    List<Translation> batch = null;
+    synchronized (this) {
+      if (System.currentTimeMillis() - mOldestPendingMillis >= mFlushIntervalMillis) {
+        batch = drainPending();
+      }
+    }
+    write(batch);
+  }
+
+  /**
+   * Must be called while holding the lock.
+   */
+  @Nullable
+  private List<Translation> drainPending() {
+    if (mPending.isEmpty()) {
+      return null;
+    }
+    List<Translation> batch = new ArrayList<>(mPending.values());
+    mPending.clear();
+    return batch;
+  }
+
+  private void write(@Nullable List<Translation> batch) {
+    if (batch == null) {
+      return;
+    }
+    try {
+      mDelegate.persist(batch);
+      mNumFlushed.addAndGet(batch.size());
+      mNumBatches.incrementAndGet();
+    } catch (RuntimeException ex) {
+      // Keep the updates around for the next flush. Newer pending updates of the same
+      // translation are the same object, so nothing is lost by not overwriting them.
+      synchronized (this) {
+        if (mPending.isEmpty()) {
+          mOldestPendingMillis = System.currentTimeMillis();
+        }
+        for (Translation translation : batch) {
+          if (!mPending.containsKey(translation.hash)) {
+            mPending.put(translation.hash, translation);
+          }
+        }
+      }
+      throw ex;
+    }
+  }
+
+  @Nullable
+  private ScheduledFuture<?> scheduleFlush(@Nullable ScheduledExecutorService scheduler) {
+    if (scheduler == null) {
+      return null;
+    }
+    try {
+      return scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          // Background threads are not covered by the ObjectifyFilter.
+          try (Closeable ignored = ObjectifyService.begin()) {
+            flushIfDue();
+          } catch (RuntimeException ex) {
+            LOG.log(Level.SEVERE, "Scheduled flush failed.", ex);
+          }
+        }
+      }, mFlushIntervalMillis, mFlushIntervalMillis, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException ex) {
+      // E.g. if the environment does not allow background threads.
+      LOG.log(Level.WARNING, "Cannot schedule periodic flushes, flushing on updates only.", ex);
+      return null;
+    }
+  }
+
+  public static class Statistics {
+    public int numPending;
+    public long numFlushed;
+    public long numCoalesced;
+    public long numBatches;
+  }
+}
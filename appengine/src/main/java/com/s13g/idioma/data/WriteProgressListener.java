@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.data;
+
+/**
+ * Gets notified about the progress of large writes to the datastore.
+ */
+public interface WriteProgressListener {
+  /**
+   * Called whenever another chunk of translations was written.
+   *
+   * @param numWritten the number of translations written so far by the current call.
+   * @param numTotal   the number of translations the current call writes.
+   */
+  void onProgress(int numWritten, int numTotal);
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.ingestion;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incrementally parses delimiter separated records from a character stream, one record at a
+ * time, so that the input never has to be held in memory as a whole.
+ * <p>
+ * Fields may be quoted as described in RFC 4180: A quoted field can contain delimiters, line
+ * breaks and quotes, the latter escaped by doubling them. Records are separated by LF or CRLF.
+ */
+class CsvParser {
+  private static final char QUOTE = '"';
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader mReader;
+  private final char mDelimiter;
+  private final char[] mBuffer = new char[BUFFER_SIZE];
+  private int mBufferPos = 0;
+  private int mBufferEnd = 0;
+  private final StringBuilder mField = new StringBuilder();
+
+  CsvParser(Reader reader, char delimiter) {
+    mReader = reader;
+    mDelimiter = delimiter;
+  }
+
+  /**
+   * @return The fields of the next record or null, if the end of the input was reached.
+   */
+  @Nullable
+  List<String> nextRecord() throws IOException {
+    int c = read();
+    if (c < 0) {
+      return null;
+    }
+    List<String> fields = new ArrayList<>();
+    mField.setLength(0);
+    boolean quoted = false;
+    while (true) {
+      if (quoted) {
+        if (c < 0) {
+          throw new IOException("Unterminated quoted field");
+        }
+        if (c == QUOTE) {
+          int next = read();
+          if (next == QUOTE) {
+            mField.append(QUOTE);
+          } else {
+            quoted = false;
+            c = next;
+            continue;
+          }
+        } else {
+          mField.append((char) c);
+        }
+      } else if (c < 0 || c == '\n') {
+        fields.add(mField.toString());
+        return fields;
+      } else if (c == '\r') {
+        int next = read();
+        if (next != '\n' && next >= 0) {
+          // A lone CR is kept as part of the field.
+          mField.append('\r');
+          c = next;
+          continue;
+        }
+        fields.add(mField.toString());
+        return fields;
+      } else if (c == mDelimiter) {
+        fields.add(mField.toString());
+        mField.setLength(0);
+      } else if (c == QUOTE && mField.length() == 0) {
+        quoted = true;
+      } else {
+        mField.append((char) c);
+      }
+      c = read();
+    }
+  }
+
+  private int read() throws IOException {
+    if (mBufferPos == mBufferEnd) {
+      int numRead = mReader.read(mBuffer, 0, mBuffer.length);
+      if (numRead <= 0) {
+        return -1;
+      }
+      mBufferPos = 0;
+      mBufferEnd = numRead;
+    }
+    return mBuffer[mBufferPos++];
+  }
+}
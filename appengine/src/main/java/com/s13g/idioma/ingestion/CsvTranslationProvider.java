@@ -16,71 +16,146 @@
 
 package com.s13g.idioma.ingestion;
 
+import com.google.common.io.CharSource;
 import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationLoader;
 import com.s13g.idioma.data.TranslationProvider;
 import com.s13g.idioma.data.TranslationsUtil;
 
-import java.io.BufferedReader;
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
- * Provides translations from a given CSV Source.
+ * Provides translations from a given tab separated CSV source. The source is parsed as a stream,
+ * so the raw source is never held in memory as a whole.
+ * <p>
+ * Since the source can be read several times, an ingestion can first diff only the hashes and
+ * flags of its translations against the deck, see {@link #getDiffRecords()}, and then read the
+ * complete ones to add in a second pass, see {@link #loadComplete(Collection)}.
  */
-public class CsvTranslationProvider implements TranslationProvider {
+public class CsvTranslationProvider implements TranslationProvider, TranslationLoader {
   private static final Logger LOG = Logger.getLogger("CsvProvider");
 
   private static final int COLUMN_COUNT = 6;
+  private static final char DELIMITER = '\t';
 
-  private final String mCsvData;
+  private final CharSource mCsvData;
 
-  public CsvTranslationProvider(String csvData) {
+  /**
+   * @param csvData the CSV source.
+   */
+  public CsvTranslationProvider(CharSource csvData) {
     mCsvData = csvData;
   }
 
   @Override
   public Collection<Translation> getCompleteSet() throws TranslationProvidingException {
-    BufferedReader reader = new BufferedReader(new StringReader(mCsvData));
+    return read(false, null);
+  }
+
+  /**
+   * @return The translations with only their hashes and flags, see
+   * {@link Translation#toDiffRecord()}.
+   */
+  public Collection<Translation> getDiffRecords() throws TranslationProvidingException {
+    return read(true, null);
+  }
+
+  /**
+   * Reads the source again, keeping only the translations with the given hashes.
+   *
+   * @throws IllegalStateException if the source can no longer be read.
+   */
+  @Override
+  public Map<Long, Translation> loadComplete(Collection<Long> hashes) {
     try {
-      String[] firstLine = reader.readLine().split("\\t");
-      if (firstLine.length != COLUMN_COUNT) {
+      Map<Long, Translation> translations = new HashMap<>();
+      // Of translations with the same hash, the last one wins, like in the diff.
+      for (Translation translation : read(false, new HashSet<>(hashes))) {
+        translations.put(translation.hash, translation);
+      }
+      return translations;
+    } catch (TranslationProvidingException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @param diffRecords whether to keep only the hashes and flags of the translations.
+   * @param hashes      the hashes of the translations to keep, or null to keep all.
+   */
+  private List<Translation> read(boolean diffRecords, @Nullable Set<Long> hashes)
+      throws TranslationProvidingException {
+    Reader reader = null;
+    try {
+      reader = mCsvData.openStream();
+      CsvParser parser = new CsvParser(reader, DELIMITER);
+      List<String> firstLine = parser.nextRecord();
+      if (firstLine == null) {
+        throw new TranslationProvidingException("CSV is empty");
+      }
+      if (firstLine.size() != COLUMN_COUNT) {
         throw new TranslationProvidingException("CSV has invalid column count");
       }
-      List<Translation> translations = new LinkedList<>();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        ingestLine(line, translations);
+      List<Translation> translations = new ArrayList<>();
+      List<Translation> recordTranslations = new ArrayList<>(2);
+      List<String> record;
+      while ((record = parser.nextRecord()) != null) {
+        recordTranslations.clear();
+        ingestRecord(record, recordTranslations);
+        for (Translation translation : recordTranslations) {
+          if (hashes == null || hashes.contains(translation.hash)) {
+            translations.add(diffRecords ? translation.toDiffRecord() : translation);
+          }
+        }
       }
       return translations;
     } catch (IOException e) {
       throw new TranslationProvidingException("Cannot ingest CSV", e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          LOG.warning("Cannot close CSV source: " + e.getMessage());
+        }
+      }
     }
   }
 
   /**
-   * Ingest a single line from the data spreadsheet.
+   * Ingest a single record from the data spreadsheet.
    *
-   * @param line valid CSV line
+   * @param parts        the fields of a CSV record
    * @param translations a list of all translation to which we'll add the new one extracted from the
-   * line.
+   *                     record.
    */
-  private void ingestLine(String line, List<Translation> translations) {
-    String[] parts = line.split("\\t");
-    if (parts.length < 2) {
-      LOG.warning("Skipping line: '" + line + "'.");
+  private void ingestRecord(List<String> parts, List<Translation> translations) {
+    // Trailing empty fields carry no information.
+    int numParts = parts.size();
+    while (numParts > 0 && parts.get(numParts - 1).isEmpty()) {
+      numParts--;
+    }
+    if (numParts < 2) {
+      LOG.warning("Skipping record: '" + parts + "'.");
       return;
     }
-    String from = parts[0];
-    String to = parts[1];
+    String from = parts.get(0);
+    String to = parts.get(1);
 
-    String note = parts.length > 2 ? parts[2] : "";
-    boolean fromConversation = parts.length > 3 && !parts[3].isEmpty();
-    boolean disabled = parts.length > 4 && !parts[4].isEmpty();
-    boolean important = parts.length > 5 && !parts[5].isEmpty();
+    String note = numParts > 2 ? parts.get(2) : "";
+    boolean fromConversation = numParts > 3 && !parts.get(3).isEmpty();
+    boolean disabled = numParts > 4 && !parts.get(4).isEmpty();
+    boolean important = numParts > 5 && !parts.get(5).isEmpty();
     TranslationsUtil.addInitializedTranslationPairsTo(
         from, to, note, fromConversation, disabled, important, translations);
   }
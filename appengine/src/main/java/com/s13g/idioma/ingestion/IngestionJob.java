@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.ingestion;
+
+import com.s13g.idioma.data.Bins;
+import com.s13g.idioma.data.IngestionState;
+import com.s13g.idioma.data.IngestionState.Phase;
+import com.s13g.idioma.data.IngestionStore;
+import com.s13g.idioma.data.IngestionUtil;
+import com.s13g.idioma.data.IngestionUtil.IngestionException;
+import com.s13g.idioma.data.IngestionUtil.UpdateResult;
+import com.s13g.idioma.data.IngestionUtil.UpdateStats;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationLoader;
+import com.s13g.idioma.data.TranslationProvider;
+import com.s13g.idioma.data.TranslationProvider.TranslationProvidingException;
+import com.s13g.idioma.data.TranslationsUtil;
+import com.s13g.idioma.data.WriteProgressListener;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ingests the translations of a provider into a deck, saving its progress in its
+ * {@link IngestionState} so that it can be polled from any instance while the job runs.
+ */
+public class IngestionJob implements Runnable {
+  private static final Logger LOG = Logger.getLogger("IngestionJob");
+
+  /**
+   * Write progress is saved at most this often, the phases are saved whenever they change.
+   */
+  private static final long PROGRESS_SAVE_INTERVAL_MS = 2000;
+
+  private final String mDeckId;
+  private final IngestionState mState;
+  private final IngestionStore mStore;
+  private final TranslationProvider mProvider;
+
+  /**
+   * How many translations the current write call has written so far.
+   */
+  private int mNumWrittenInCall;
+  private long mProgressSavedMillis;
+
+  IngestionJob(String deckId, IngestionState state, IngestionStore store,
+               TranslationProvider provider) {
+    mDeckId = deckId;
+    mState = state;
+    mStore = store;
+    mProvider = provider;
+  }
+
+  @Override
+  public void run() {
+    try {
+      TranslationsUtil translationsUtil = new TranslationsUtil(mDeckId,
+          new WriteProgressListener() {
+            @Override
+            public void onProgress(int numWritten, int numTotal) {
+              onWriteProgress(numWritten);
+            }
+          });
+      // Ingestions are diffed by hash, so the deck must use the current ones.
+      if (translationsUtil.needsHashMigration()) {
+        // Loaded bins would keep writing answers under the old hashes.
+        Bins.evict(mDeckId);
+        translationsUtil.migrateHashesIfNecessary();
+      }
+      UpdateStats updateStats;
+      if (mProvider instanceof SpreadsheetsTranslationProvider) {
+        updateStats = syncSheet((SpreadsheetsTranslationProvider) mProvider, translationsUtil);
+      } else {
+        setPhase(Phase.FETCHING);
+        if (mProvider instanceof CsvTranslationProvider) {
+          // Only what is needed for the diff is held in memory, the translations to add are
+          // read from the upload again.
+          CsvTranslationProvider csv = (CsvTranslationProvider) mProvider;
+          updateStats = ingestComplete(csv.getDiffRecords(), csv, translationsUtil);
+        } else {
+          updateStats = ingestComplete(mProvider.getCompleteSet(), null, translationsUtil);
+        }
+        // The deck no longer matches what it was last synced with.
+        translationsUtil.clearSheetSyncStates();
+      }
+      mState.setUpdateStats(updateStats);
+      setPhase(Phase.DONE);
+    } catch (IngestionException | TranslationProvidingException | RuntimeException e) {
+      LOG.log(Level.SEVERE, "Ingestion job " + mState.getJobId() + " failed.", e);
+      mState.setError(e.getMessage());
+      setPhase(Phase.FAILED);
+    }
+  }
+
+  /**
+   * Ingests only what changed in the sheet since the last sync, if possible.
+   */
+  private UpdateStats syncSheet(SpreadsheetsTranslationProvider provider,
+                                TranslationsUtil translationsUtil)
+      throws IngestionException, TranslationProvidingException {
+    setPhase(Phase.FETCHING);
+    SpreadsheetsTranslationProvider.Sync sync =
+        provider.sync(translationsUtil.getSheetSyncState(provider.getSpreadsheetId()));
+    if (sync.isUnchanged()) {
+      return UpdateStats.from(new UpdateResult());
+    }
+
+    UpdateStats updateStats;
+    if (sync.changed == null) {
+      updateStats = ingestComplete(sync.complete, null, translationsUtil);
+    } else {
+      mState.setNumFetched(sync.changed.size());
+      setPhase(Phase.LOADING);
+      Set<Long> removedHashes = Collections.emptySet();
+      if (sync.rowsRemoved) {
+        // Translations of removed rows are the ones no row produces anymore.
+        removedHashes = translationsUtil.getAllHashes();
+        for (Translation translation : sync.complete) {
+          removedHashes.remove(translation.hash);
+        }
+      }
+      // Ensure we do not overwrite answers that have not been written yet.
+      Bins.flushPendingWrites(mDeckId);
+
+      setPhase(Phase.WRITING);
+      updateStats = new IngestionUtil(mDeckId)
+          .ingestChanges(sync.changed, removedHashes, translationsUtil, translationsUtil);
+    }
+    translationsUtil.saveSheetSyncState(sync.state);
+    return updateStats;
+  }
+
+  /**
+   * Diffs the given translations against the whole deck.
+   *
+   * @param ingestedLoader loads the complete ingested translations, if only their hashes and
+   *                       flags are given.
+   */
+  private UpdateStats ingestComplete(Collection<Translation> ingested,
+                                     @Nullable TranslationLoader ingestedLoader,
+                                     TranslationsUtil translationsUtil)
+      throws IngestionException {
+    mState.setNumFetched(ingested.size());
+    setPhase(Phase.LOADING);
+    // Ensure we do not overwrite answers that have not been written yet.
+    Bins.flushPendingWrites(mDeckId);
+    // Only hashes and flags are needed to find out what changed.
+    Collection<Translation> existing = translationsUtil.getSetForDiff();
+
+    setPhase(Phase.WRITING);
+    return new IngestionUtil(mDeckId)
+        .ingest(existing, ingested, translationsUtil, translationsUtil, ingestedLoader);
+  }
+
+  private void setPhase(Phase phase) {
+    LOG.info(String.format("Ingestion job %s: %s", mState.getJobId(), phase));
+    mState.setPhase(phase);
+    saveState();
+  }
+
+  private void onWriteProgress(int numWrittenInCall) {
+    if (numWrittenInCall <= mNumWrittenInCall) {
+      // The next write call started.
+      mNumWrittenInCall = 0;
+    }
+    mState.addNumWritten(numWrittenInCall - mNumWrittenInCall);
+    mNumWrittenInCall = numWrittenInCall;
+    if (System.currentTimeMillis() - mProgressSavedMillis >= PROGRESS_SAVE_INTERVAL_MS) {
+      saveState();
+    }
+  }
+
+  private void saveState() {
+    mProgressSavedMillis = System.currentTimeMillis();
+    try {
+      mStore.save(mState);
+    } catch (RuntimeException e) {
+      // Only the reported progress lags behind.
+      LOG.log(Level.WARNING, "Cannot save the state of ingestion job " + mState.getJobId(), e);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.ingestion;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.s13g.idioma.data.IngestionState;
+import com.s13g.idioma.data.IngestionState.Phase;
+import com.s13g.idioma.data.IngestionStore;
+import com.s13g.idioma.data.TranslationProvider;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs ingestion jobs as push tasks of the "ingestion" queue, since requests of automatically
+ * scaled instances cannot outlive their response. Their {@link IngestionState} is kept in the
+ * datastore, so that their progress can be polled on any instance. A job for a deck and source
+ * that is already queued or running is not started a second time.
+ * <p>
+ * Uploads are stored in the datastore until their task ingests them.
+ */
+public class IngestionJobs {
+  private static final Logger LOG = Logger.getLogger("IngestionJobs");
+
+  public static final String GSHEETS_SOURCE_KEY = "gsheets";
+  private static final String CSV_SOURCE_KEY_PREFIX = "csv:";
+
+  private static final String QUEUE_NAME = "ingestion";
+  /**
+   * Handled by the IngestionTaskServlet, which calls {@link #runTask}.
+   */
+  private static final String TASK_URL = "/ingest/task";
+
+  private static final IngestionJobs sInstance = new IngestionJobs();
+
+  public static IngestionJobs get() {
+    return sInstance;
+  }
+
+  /**
+   * Starts a job syncing the deck with the spreadsheet, unless one is queued or running already.
+   *
+   * @return The state of the new job, or of the one that is already queued or running.
+   */
+  public IngestionState submitSheetSync(String deckId) {
+    return submit(deckId, GSHEETS_SOURCE_KEY, null, 0);
+  }
+
+  /**
+   * Stores the given CSV file and starts a job ingesting it, unless the same file is queued or
+   * running already.
+   *
+   * @return The state of the new job, or of the one that is already queued or running.
+   * @throws IOException if the upload cannot be read or stored.
+   */
+  public IngestionState submitUpload(String deckId, InputStream upload) throws IOException {
+    IngestionStore store = new IngestionStore(deckId);
+    String uploadId = UUID.randomUUID().toString();
+    // Identical uploads are only ingested once at a time.
+    HashingInputStream hashingStream = new HashingInputStream(Hashing.sha256(), upload);
+    int numChunks = store.saveUpload(uploadId, hashingStream);
+    String sourceKey = CSV_SOURCE_KEY_PREFIX + hashingStream.hash();
+    IngestionState state = submit(deckId, sourceKey, uploadId, numChunks);
+    if (!uploadId.equals(state.getUploadId())) {
+      store.deleteUpload(uploadId, numChunks);
+    }
+    return state;
+  }
+
+  private IngestionState submit(String deckId, String sourceKey, @Nullable String uploadId,
+                                int uploadNumChunks) {
+    IngestionStore store = new IngestionStore(deckId);
+    String jobId = UUID.randomUUID().toString();
+    IngestionState state = store.startIfNotRunning(sourceKey, jobId, uploadId, uploadNumChunks);
+    if (!jobId.equals(state.getJobId())) {
+      LOG.info("Ingestion of " + sourceKey + " already running as job " + state.getJobId());
+      return state;
+    }
+    try {
+      QueueFactory.getQueue(QUEUE_NAME).add(TaskOptions.Builder.withUrl(TASK_URL)
+          .param("deck", deckId)
+          .param("source", sourceKey)
+          .param("job", jobId));
+    } catch (RuntimeException e) {
+      // Left queued, it would block later submissions as a duplicate.
+      LOG.log(Level.SEVERE, "Cannot enqueue ingestion job " + jobId, e);
+      state.setError("Cannot enqueue the job: " + e.getMessage());
+      state.setPhase(Phase.FAILED);
+      store.save(state);
+      if (uploadId != null) {
+        store.deleteUpload(uploadId, uploadNumChunks);
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Runs the given job, on the thread of its task. Does nothing, if the job is no longer the
+   * latest of its source or finished already, e.g. when the task is retried.
+   */
+  public void runTask(String deckId, String sourceKey, String jobId) {
+    IngestionStore store = new IngestionStore(deckId);
+    IngestionState state = store.getState(sourceKey);
+    if (state == null || !state.getJobId().equals(jobId) || state.isFinished()) {
+      LOG.info("Ingestion job " + jobId + " is not pending, skipping it.");
+      return;
+    }
+    TranslationProvider provider;
+    if (GSHEETS_SOURCE_KEY.equals(sourceKey)) {
+      provider = SpreadsheetsTranslationProvider.create();
+    } else {
+      provider = new CsvTranslationProvider(store
+          .getUpload(state.getUploadId(), state.getUploadNumChunks())
+          .asCharSource(Charsets.UTF_8));
+    }
+    try {
+      new IngestionJob(deckId, state, store, provider).run();
+    } finally {
+      if (state.getUploadId() != null && state.isFinished()) {
+        store.deleteUpload(state.getUploadId(), state.getUploadNumChunks());
+      }
+    }
+  }
+}
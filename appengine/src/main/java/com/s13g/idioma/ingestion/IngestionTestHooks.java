@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.ingestion;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gives the CLI tests in com.s13g.idioma.test access to the parts of the ingestion package that
+ * are not part of its public API. Not to be used by anything else.
+ */
+public final class IngestionTestHooks {
+  private IngestionTestHooks() {
+  }
+
+  /**
+   * @return All records of the given CSV, as parsed by {@link CsvParser}.
+   */
+  public static List<List<String>> parseCsv(Reader reader, char delimiter) throws IOException {
+    CsvParser parser = new CsvParser(reader, delimiter);
+    List<List<String>> records = new ArrayList<>();
+    List<String> record;
+    while ((record = parser.nextRecord()) != null) {
+      records.add(record);
+    }
+    return records;
+  }
+}
@@ -18,21 +18,37 @@ package com.s13g.idioma.ingestion;
 
 import com.google.api.client.extensions.appengine.http.UrlFetchTransport;
 import com.google.api.client.googleapis.extensions.appengine.auth.oauth2.AppIdentityCredential;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.repackaged.com.google.common.base.Strings;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.SheetsScopes;
 import com.google.api.services.sheets.v4.model.ValueRange;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.s13g.idioma.data.SheetSyncState;
 import com.s13g.idioma.data.Translation;
 import com.s13g.idioma.data.TranslationProvider;
 import com.s13g.idioma.data.TranslationsUtil;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.*;
 import java.util.logging.Logger;
 
 /**
  * Fetches the translations from a Google Sheet through the Google Client API.
+ * <p>
+ * Besides fetching the complete set, the provider can {@link #sync(SheetSyncState) sync}: It
+ * checks the revision of the sheet through the Drive API first and does not fetch the sheet at
+ * all if it did not change. Otherwise only the rows that changed since the last sync are handed
+ * out for ingestion, recognized by a fingerprint of their content.
  */
 public class SpreadsheetsTranslationProvider implements TranslationProvider {
   private static final Logger LOG = Logger.getLogger("SheetsProvider");
@@ -41,6 +57,9 @@ public class SpreadsheetsTranslationProvider implements TranslationProvider {
   private static final int COLUMN_COUNT = 6;
 
   private static final String APP_NAME = "Idioma App";
+  private static final String DRIVE_FILES_URL = "https://www.googleapis.com/drive/v3/files/";
+  private static final String DRIVE_METADATA_SCOPE =
+      "https://www.googleapis.com/auth/drive.metadata.readonly";
 
   // FIXME: Put this in a properties file
   private static final String SPREADSHEET_ID = "1kNAqOaHDc3eHuP1764s47LljOQheCw2_0uBgaqq9Snc";
@@ -51,56 +70,207 @@ public class SpreadsheetsTranslationProvider implements TranslationProvider {
    * at ~/.credentials/sheets.googleapis.com-java-quickstart
    */
   private static final List<String> SCOPES =
-      Collections.singletonList(SheetsScopes.SPREADSHEETS_READONLY);
+      Arrays.asList(SheetsScopes.SPREADSHEETS_READONLY, DRIVE_METADATA_SCOPE);
 
   private final Sheets mSheets;
+  private final HttpTransport mTransport;
+  private final JsonFactory mJsonFactory;
+  @Nullable
+  private final HttpRequestInitializer mCredential;
 
   /**
    * @return An instance of this provider.
    */
   public static SpreadsheetsTranslationProvider create() {
-    AppIdentityCredential credential = new AppIdentityCredential(SCOPES);
-    return new SpreadsheetsTranslationProvider(
-        new Sheets.Builder(new UrlFetchTransport(), new JacksonFactory(), credential)
-            .setApplicationName(APP_NAME)
-            .build());
+    return create(new UrlFetchTransport(), new AppIdentityCredential(SCOPES));
+  }
+
+  /**
+   * @param transport  used for all requests, e.g. a fake transport serving canned responses.
+   * @param credential authorizes the requests, if necessary.
+   * @return An instance of this provider.
+   */
+  public static SpreadsheetsTranslationProvider create(
+      HttpTransport transport, @Nullable HttpRequestInitializer credential) {
+    return new SpreadsheetsTranslationProvider(transport, new JacksonFactory(), credential);
+  }
+
+  /**
+   * @return Identifies the sheet this provider reads from.
+   */
+  public String getSpreadsheetId() {
+    return SPREADSHEET_ID;
   }
 
   @Override
   public Collection<Translation> getCompleteSet() throws TranslationProvidingException {
+    List<Translation> translations = new ArrayList<>();
+    for (List<Object> row : fetchRows()) {
+      addTranslations(new RowData(row), translations);
+    }
+    return translations;
+  }
+
+  /**
+   * Finds out what changed in the sheet since the given state.
+   *
+   * @param previous what the deck was last synced with, or null if it never was.
+   */
+  public Sync sync(@Nullable SheetSyncState previous) throws TranslationProvidingException {
+    String version = fetchVersion();
+    if (previous != null && version.equals(previous.getVersion())) {
+      LOG.info("Sheet unchanged at version " + version + ".");
+      return new Sync(previous, null, null, false);
+    }
+
+    long[] previousFingerprints = previous != null ? previous.getRowFingerprints() : null;
+    List<List<Object>> rows = fetchRows();
+    List<Translation> complete = new ArrayList<>(rows.size() * 2);
+    List<Translation> changed = previousFingerprints != null ? new ArrayList<Translation>() : null;
+    long[] fingerprints = new long[rows.size()];
+    int numUnchanged = 0;
+    // Indexes of the previous fingerprints that some row still has. Duplicate rows must not
+    // count twice, or a removed row could go unnoticed.
+    BitSet matched = new BitSet();
+    for (int r = 0; r < rows.size(); ++r) {
+      RowData row = new RowData(rows.get(r));
+      fingerprints[r] = row.getFingerprint();
+      int from = complete.size();
+      addTranslations(row, complete);
+      if (previousFingerprints != null) {
+        int index = Arrays.binarySearch(previousFingerprints, fingerprints[r]);
+        if (index >= 0) {
+          numUnchanged++;
+          markMatched(previousFingerprints, index, matched);
+        } else {
+          changed.addAll(complete.subList(from, complete.size()));
+        }
+      }
+    }
+    // Rows that were edited have a new fingerprint, so their old one is gone as well.
+    boolean rowsRemoved =
+        previousFingerprints != null && matched.cardinality() < previousFingerprints.length;
+    if (changed != null) {
+      LOG.info(String.format("Sheet version %s: %d of %d rows changed, rows removed: %b.",
+          version, rows.size() - numUnchanged, rows.size(), rowsRemoved));
+    }
+    return new Sync(new SheetSyncState(SPREADSHEET_ID, version, fingerprints), complete, changed,
+        rowsRemoved);
+  }
+
+  /**
+   * Marks the given index of the sorted fingerprints as matched, along with all others that hold
+   * the same fingerprint.
+   */
+  private static void markMatched(long[] sortedFingerprints, int index, BitSet matched) {
+    if (matched.get(index)) {
+      return;
+    }
+    int from = index;
+    while (from > 0 && sortedFingerprints[from - 1] == sortedFingerprints[index]) {
+      from--;
+    }
+    int to = index + 1;
+    while (to < sortedFingerprints.length && sortedFingerprints[to] == sortedFingerprints[index]) {
+      to++;
+    }
+    matched.set(from, to);
+  }
+
+  /**
+   * @return The revision of the sheet, which changes with every edit.
+   */
+  private String fetchVersion() throws TranslationProvidingException {
+    try {
+      HttpRequest request = mTransport.createRequestFactory(mCredential)
+          .buildGetRequest(new GenericUrl(DRIVE_FILES_URL + SPREADSHEET_ID + "?fields=version"));
+      request.setParser(new JsonObjectParser(mJsonFactory));
+      Object version = request.execute().parseAs(GenericJson.class).get("version");
+      if (version == null) {
+        throw new TranslationProvidingException("No version in Drive metadata");
+      }
+      return version.toString();
+    } catch (IOException e) {
+      throw new TranslationProvidingException("Cannot fetch sheet version through Drive API", e);
+    }
+  }
+
+  /**
+   * @return The rows of the sheet, without the heading.
+   */
+  private List<List<Object>> fetchRows() throws TranslationProvidingException {
     try {
       ValueRange resp = mSheets.spreadsheets().values().get(SPREADSHEET_ID, RANGE).execute();
       List<List<Object>> values = resp.getValues();
+      if (values == null || values.isEmpty()) {
+        throw new TranslationProvidingException("Sheet is empty");
+      }
       LOG.info("About to ingest " + (values.size() - 1) + " translations.");
-      List<Translation> translations = new ArrayList<>(values.size() - 1);
 
       // First row is the heading. Sanity check.
+      List<Object> heading = values.get(0);
       for (int i = 0; i < COLUMN_COUNT; ++i) {
-        if (Strings.isNullOrEmpty((String) values.get(0).get(i))) {
+        if (heading.size() <= i || Strings.isNullOrEmpty((String) heading.get(i))) {
           throw new TranslationProvidingException("Invalid column count");
         }
       }
-
-      for (int r = 1; r < values.size(); ++r) {
-        RowData row = new RowData(values.get(r));
-        String from = row.getString(0);
-        String translated = row.getString(1);
-        String note = row.getString(2);
-        boolean fromConversation = row.getBoolean(3);
-        boolean disabled = row.getBoolean(4);
-        boolean important = row.getBoolean(5);
-        TranslationsUtil.addInitializedTranslationPairsTo(
-            from, translated, note, fromConversation, disabled, important, translations);
-      }
-
-      return translations;
+      return values.subList(1, values.size());
     } catch (IOException e) {
       throw new TranslationProvidingException("Cannot import through Sheets API", e);
     }
   }
 
-  private SpreadsheetsTranslationProvider(Sheets sheets) {
-    mSheets = sheets;
+  private static void addTranslations(RowData row, List<Translation> translations) {
+    TranslationsUtil.addInitializedTranslationPairsTo(row.getString(0), row.getString(1),
+        row.getString(2), row.getBoolean(3), row.getBoolean(4), row.getBoolean(5),
+        translations);
+  }
+
+  private SpreadsheetsTranslationProvider(HttpTransport transport, JsonFactory jsonFactory,
+                                          @Nullable HttpRequestInitializer credential) {
+    mTransport = transport;
+    mJsonFactory = jsonFactory;
+    mCredential = credential;
+    mSheets = new Sheets.Builder(transport, jsonFactory, credential)
+        .setApplicationName(APP_NAME)
+        .build();
+  }
+
+  /**
+   * The outcome of a {@link #sync(SheetSyncState)}.
+   */
+  public static class Sync {
+    /**
+     * To be stored once the sync was ingested.
+     */
+    public final SheetSyncState state;
+    /**
+     * All translations of the sheet. Null if the sheet is unchanged.
+     */
+    @Nullable
+    public final List<Translation> complete;
+    /**
+     * The translations of the rows that changed. Null if the sheet is unchanged, or if all
+     * translations have to be diffed, since the previous state has no row fingerprints.
+     */
+    @Nullable
+    public final List<Translation> changed;
+    /**
+     * Whether rows were removed or edited, in which case translations might have to be removed.
+     */
+    public final boolean rowsRemoved;
+
+    Sync(SheetSyncState state, @Nullable List<Translation> complete,
+         @Nullable List<Translation> changed, boolean rowsRemoved) {
+      this.state = state;
+      this.complete = complete;
+      this.changed = changed;
+      this.rowsRemoved = rowsRemoved;
+    }
+
+    public boolean isUnchanged() {
+      return complete == null;
+    }
   }
 
   private static class RowData {
@@ -121,5 +291,17 @@ public class SpreadsheetsTranslationProvider implements TranslationProvider {
     boolean getBoolean(int i) {
       return getString(i).trim().length() > 0;
     }
+
+    /**
+     * @return A fingerprint of everything the translations of this row are made of.
+     */
+    long getFingerprint() {
+      StringBuilder content = new StringBuilder();
+      for (int i = 0; i < COLUMN_COUNT; ++i) {
+        // The flags only count as set or not set.
+        content.append(i < 3 ? getString(i) : String.valueOf(getBoolean(i))).append('\0');
+      }
+      return Hashing.murmur3_128().hashString(content, Charsets.UTF_8).asLong();
+    }
   }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that only ever increases. Thread-safe.
+ */
+public class Counter implements Metric {
+  private final AtomicLong mValue = new AtomicLong();
+
+  Counter() {
+  }
+
+  public void increment() {
+    mValue.incrementAndGet();
+  }
+
+  public void add(long amount) {
+    mValue.addAndGet(amount);
+  }
+
+  public long get() {
+    return mValue.get();
+  }
+
+  @Override
+  public void writeTo(String name, String labels, Writer writer) throws IOException {
+    Metrics.writeSample(name, labels, mValue.get(), writer);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts observed values in buckets with fixed upper bounds. Values are recorded as longs in a
+ * base unit, e.g. nanoseconds, and exported in the unit of the metric, e.g. seconds. Recording
+ * is lock-free and does not allocate.
+ */
+public class Histogram implements Metric {
+  private static final long NANOS_PER_MILLI = 1000000L;
+
+  /**
+   * Upper bounds for durations, from 1 ms to 10 s.
+   */
+  static final long[] LATENCY_BOUNDS_NANOS = {
+      NANOS_PER_MILLI, 2 * NANOS_PER_MILLI, 5 * NANOS_PER_MILLI,
+      10 * NANOS_PER_MILLI, 25 * NANOS_PER_MILLI, 50 * NANOS_PER_MILLI,
+      100 * NANOS_PER_MILLI, 250 * NANOS_PER_MILLI, 500 * NANOS_PER_MILLI,
+      1000 * NANOS_PER_MILLI, 2500 * NANOS_PER_MILLI, 5000 * NANOS_PER_MILLI,
+      10000 * NANOS_PER_MILLI};
+  static final double NANOS_PER_SECOND = 1e9;
+
+  /**
+   * Upper bounds for the number of items in a batch.
+   */
+  static final long[] SIZE_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 5000, 10000};
+
+  private final long[] mUpperBounds;
+  private final double mUnitsPerExportedUnit;
+  /**
+   * Non-cumulative counts per bucket, the last one counting values above all bounds.
+   */
+  private final AtomicLongArray mCounts;
+  private final AtomicLong mSum = new AtomicLong();
+
+  Histogram(long[] upperBounds, double unitsPerExportedUnit) {
+    mUpperBounds = upperBounds;
+    mUnitsPerExportedUnit = unitsPerExportedUnit;
+    mCounts = new AtomicLongArray(upperBounds.length + 1);
+  }
+
+  public void observe(long value) {
+    int bucket = Arrays.binarySearch(mUpperBounds, value);
+    // Bounds are inclusive. If the value is not a bound, this yields the next higher one.
+    mCounts.incrementAndGet(bucket >= 0 ? bucket : -bucket - 1);
+    mSum.addAndGet(value);
+  }
+
+  /**
+   * Records the time passed since the given start time, as returned by
+   * {@link System#nanoTime()}. Only meaningful for latency histograms.
+   */
+  public void observeSince(long startNanos) {
+    observe(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * @return The number of observed values.
+   */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < mCounts.length(); ++i) {
+      count += mCounts.get(i);
+    }
+    return count;
+  }
+
+  @Override
+  public void writeTo(String name, String labels, Writer writer) throws IOException {
+    String separator = labels.isEmpty() ? "" : labels + ",";
+    long cumulative = 0;
+    for (int i = 0; i < mUpperBounds.length; ++i) {
+      cumulative += mCounts.get(i);
+      Metrics.writeSample(name + "_bucket",
+          separator + "le=\"" + Metrics.formatValue(mUpperBounds[i] / mUnitsPerExportedUnit) +
+              "\"", cumulative, writer);
+    }
+    cumulative += mCounts.get(mUpperBounds.length);
+    Metrics.writeSample(name + "_bucket", separator + "le=\"+Inf\"", cumulative, writer);
+    Metrics.writeSample(name + "_sum", labels, mSum.get() / mUnitsPerExportedUnit, writer);
+    Metrics.writeSample(name + "_count", labels, cumulative, writer);
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A single time series, or a group of them in the case of histograms.
+ */
+interface Metric {
+  /**
+   * Writes the samples of this metric in the Prometheus text format.
+   *
+   * @param name   the name of the metric.
+   * @param labels the formatted labels, without braces. Might be empty.
+   */
+  void writeTo(String name, String labels, Writer writer) throws IOException;
+}
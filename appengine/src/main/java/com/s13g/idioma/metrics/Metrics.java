@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A registry of metrics, exported in the Prometheus text format.
+ * <p>
+ * Metrics are identified by their name and labels. Asking for the same metric twice returns the
+ * same instance, so classes can simply keep the metrics they record as static fields. Labels are
+ * given as alternating names and values, e.g. <code>"operation", "persist"</code>.
+ */
+public class Metrics {
+  private static final Metrics sInstance = new Metrics();
+
+  /**
+   * Sorted by name, so the output is stable.
+   */
+  private final ConcurrentMap<String, Family> mFamilies = new ConcurrentSkipListMap<>();
+
+  Metrics() {
+  }
+
+  /**
+   * @return The registry of this instance.
+   */
+  public static Metrics get() {
+    return sInstance;
+  }
+
+  public Counter counter(String name, String help, String... labels) {
+    return (Counter) getFamily(name, help, "counter").getOrAdd(labels, new Counter());
+  }
+
+  /**
+   * @return A histogram recording durations in nanoseconds, exported in seconds.
+   */
+  public Histogram latencyHistogram(String name, String help, String... labels) {
+    return (Histogram) getFamily(name, help, "histogram").getOrAdd(labels,
+        new Histogram(Histogram.LATENCY_BOUNDS_NANOS, Histogram.NANOS_PER_SECOND));
+  }
+
+  /**
+   * @return A histogram recording the number of items, e.g. per batch.
+   */
+  public Histogram sizeHistogram(String name, String help, String... labels) {
+    return (Histogram) getFamily(name, help, "histogram").getOrAdd(labels,
+        new Histogram(Histogram.SIZE_BOUNDS, 1));
+  }
+
+  /**
+   * Registers a gauge, unless there already is one with the same name and labels.
+   */
+  public void gauge(String name, String help, final Gauge gauge, String... labels) {
+    getFamily(name, help, "gauge").getOrAdd(labels, new Metric() {
+      @Override
+      public void writeTo(String name, String labels, Writer writer) throws IOException {
+        writeSample(name, labels, gauge.getValue(), writer);
+      }
+    });
+  }
+
+  /**
+   * Writes all metrics in the Prometheus text format, version 0.0.4.
+   */
+  public void writeTo(Writer writer) throws IOException {
+    for (Family family : mFamilies.values()) {
+      family.writeTo(writer);
+    }
+  }
+
+  private Family getFamily(String name, String help, String type) {
+    Family family = mFamilies.get(name);
+    if (family == null) {
+      Family newFamily = new Family(name, help, type);
+      family = mFamilies.putIfAbsent(name, newFamily);
+      if (family == null) {
+        family = newFamily;
+      }
+    }
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(
+          String.format("Metric %s is a %s, not a %s.", name, family.type, type));
+    }
+    return family;
+  }
+
+  static void writeSample(String name, String labels, double value, Writer writer)
+      throws IOException {
+    writer.write(name);
+    if (!labels.isEmpty()) {
+      writer.write('{');
+      writer.write(labels);
+      writer.write('}');
+    }
+    writer.write(' ');
+    writer.write(formatValue(value));
+    writer.write('\n');
+  }
+
+  static String formatValue(double value) {
+    if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private static String formatLabels(String[] labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be pairs of names and values.");
+    }
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(labels[i]).append("=\"");
+      String value = labels[i + 1];
+      for (int c = 0; c < value.length(); ++c) {
+        char ch = value.charAt(c);
+        if (ch == '\\' || ch == '"') {
+          result.append('\\').append(ch);
+        } else if (ch == '\n') {
+          result.append("\\n");
+        } else {
+          result.append(ch);
+        }
+      }
+      result.append('"');
+    }
+    return result.toString();
+  }
+
+  /**
+   * All metrics with the same name.
+   */
+  private static class Family {
+    final String name;
+    final String help;
+    final String type;
+    /**
+     * Keyed by the formatted labels.
+     */
+    final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    Family(String name, String help, String type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+    Metric getOrAdd(String[] labels, Metric metric) {
+      Metric existing = metrics.putIfAbsent(formatLabels(labels), metric);
+      return existing != null ? existing : metric;
+    }
+
+    void writeTo(Writer writer) throws IOException {
+      writer.write("# HELP " + name + " " + help + "\n");
+      writer.write("# TYPE " + name + " " + type + "\n");
+      for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+        entry.getValue().writeTo(name, entry.getKey(), writer);
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.s13g.idioma.data.Bins;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationSet;
+import com.s13g.idioma.data.TranslationsUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.s13g.idioma.test.Checks.check;
+
+/**
+ * Hammers a single Bins instance from many threads and verifies that the bins and the answer
+ * counters of all translations are still consistent afterwards.
+ */
+public class BinsStressCliTest {
+  private static final int NUM_PAIRS = 5000;
+  private static final int NUM_THREADS = 16;
+  private static final int ITERATIONS_PER_THREAD = 100000;
+
+  public static void main(String[] args) throws InterruptedException {
+    final List<Translation> translations = new ArrayList<>();
+    for (int i = 0; i < NUM_PAIRS; ++i) {
+      TranslationsUtil.addInitializedTranslationPairsTo(
+          "source" + i, "translated" + i, "", false, false, false, translations);
+    }
+    final InMemoryDataStoreUpdater updater = new InMemoryDataStoreUpdater();
+    final Bins bins = Bins.create(translations, updater);
+
+    final AtomicLong numCorrect = new AtomicLong();
+    final AtomicLong numIncorrect = new AtomicLong();
+    final AtomicLong numEmptyDraws = new AtomicLong();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(NUM_THREADS);
+    for (int t = 0; t < NUM_THREADS; ++t) {
+      final long seed = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          try {
+            start.await();
+            for (int i = 0; i < ITERATIONS_PER_THREAD; ++i) {
+              long hash;
+              if (random.nextInt(4) == 0) {
+                // Concentrate some answers on a few items to provoke contention on them.
+                hash = translations.get(random.nextInt(16)).hash;
+              } else {
+                TranslationSet set = bins.getRandom();
+                if (set == null) {
+                  numEmptyDraws.incrementAndGet();
+                  continue;
+                }
+                hash = set.mainTranslation.hash;
+              }
+              boolean correct = random.nextBoolean();
+              if (random.nextBoolean()) {
+                bins.processResponse(hash, correct);
+              } else {
+                bins.processResponses(
+                    Collections.singletonList(new Bins.Response(hash, correct)));
+              }
+              (correct ? numCorrect : numIncorrect).incrementAndGet();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    long startTime = System.currentTimeMillis();
+    start.countDown();
+    done.await();
+    long durationMs = System.currentTimeMillis() - startTime;
+
+    boolean success = true;
+    Bins.Statistics statistics = bins.getStatistics();
+    int[] numInBin = new int[statistics.numItemsInBin.length];
+    long sumCorrect = 0;
+    long sumIncorrect = 0;
+    for (Translation translation : translations) {
+      numInBin[translation.getBin()]++;
+      sumCorrect += translation.getNumRepliesCorrect();
+      sumIncorrect += translation.getNumRepliesIncorrect();
+    }
+    int total = 0;
+    System.out.println("===== Result:");
+    for (int i = 0; i < numInBin.length; ++i) {
+      System.out.println(String.format("Bin #%d -> %d", i, statistics.numItemsInBin[i]));
+      total += statistics.numItemsInBin[i];
+      success &= check(numInBin[i] == statistics.numItemsInBin[i],
+          String.format("Bin #%d holds %d items, but %d translations claim to be in it.",
+              i, statistics.numItemsInBin[i], numInBin[i]));
+    }
+    success &= check(total == translations.size(),
+        String.format("Bins hold %d items, expected %d.", total, translations.size()));
+    success &= check(sumCorrect == numCorrect.get(),
+        String.format("Counted %d correct replies, expected %d.", sumCorrect, numCorrect.get()));
+    success &= check(sumIncorrect == numIncorrect.get(),
+        String.format("Counted %d incorrect replies, expected %d.", sumIncorrect,
+            numIncorrect.get()));
+    success &= check(updater.getNumPersisted() == numCorrect.get() + numIncorrect.get(),
+        String.format("Persisted %d times, expected %d.", updater.getNumPersisted(),
+            numCorrect.get() + numIncorrect.get()));
+    success &= check(numEmptyDraws.get() == 0,
+        String.format("%d draws returned no translation.", numEmptyDraws.get()));
+
+    System.out.println(String.format("Processed %d answers on %d threads in %d ms.",
+        numCorrect.get() + numIncorrect.get(), NUM_THREADS, durationMs));
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+/**
+ * Helpers shared by the CLI tests.
+ */
+public final class Checks {
+  private Checks() {
+  }
+
+  /**
+   * Prints the given message as an error, unless the condition holds.
+   *
+   * @return The condition, to be and-ed into the test's success.
+   */
+  public static boolean check(boolean condition, String message) {
+    if (!condition) {
+      System.out.println("ERROR: " + message);
+    }
+    return condition;
+  }
+}
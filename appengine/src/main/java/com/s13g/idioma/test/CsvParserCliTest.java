@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.s13g.idioma.ingestion.IngestionTestHooks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.s13g.idioma.test.Checks.check;
+
+/**
+ * Checks that the CSV parser of the ingestion handles quoted fields as described in RFC 4180,
+ * i.e. quoted delimiters, escaped quotes and line breaks, as well as CRLF record separators.
+ * Every input is also parsed one character per read, so records and quotes span buffer refills.
+ */
+public class CsvParserCliTest {
+
+  public static void main(String[] args) throws IOException {
+    boolean success = true;
+
+    success &= checkParse("a\tb\tc\n1\t2\t3\n",
+        records(fields("a", "b", "c"), fields("1", "2", "3")), "Plain records");
+    success &= checkParse("a\tb\r\nc\td\r\n",
+        records(fields("a", "b"), fields("c", "d")), "CRLF separators");
+    success &= checkParse("a\tb\r\nc\td",
+        records(fields("a", "b"), fields("c", "d")), "No separator after the last record");
+    success &= checkParse("\"a\tb\"\tc\n",
+        records(fields("a\tb", "c")), "Quoted tab");
+    success &= checkParse("\"say \"\"hi\"\"\"\t\"\"\"\"\n",
+        records(fields("say \"hi\"", "\"")), "Escaped quotes");
+    success &= checkParse("\"line 1\nline 2\"\tx\n\"a\r\nb\"\ty\r\n",
+        records(fields("line 1\nline 2", "x"), fields("a\r\nb", "y")), "Embedded line breaks");
+    success &= checkParse("\"\"\t\t\"\"\n",
+        records(fields("", "", "")), "Empty fields");
+    success &= checkParse("a\"b\tc\n",
+        records(fields("a\"b", "c")), "Quote inside an unquoted field");
+    success &= checkParse("a\rb\tc\n",
+        records(fields("a\rb", "c")), "Lone CR");
+    success &= checkParse("a\n\nb\n",
+        records(fields("a"), fields(""), fields("b")), "Empty line");
+    success &= checkParse("", records(), "Empty input");
+
+    boolean rejected;
+    try {
+      parse(new StringReader("\"unterminated\tx\n"));
+      rejected = false;
+    } catch (IOException e) {
+      rejected = true;
+    }
+    success &= check(rejected, "An unterminated quoted field is accepted.");
+
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  private static boolean checkParse(String input, List<List<String>> expected, String name)
+      throws IOException {
+    boolean success = true;
+    List<List<String>> parsed = parse(new StringReader(input));
+    if (!parsed.equals(expected)) {
+      System.out.println("ERROR: " + name + ": " + parsed + " instead of " + expected);
+      success = false;
+    }
+    parsed = parse(new OneCharReader(input));
+    if (!parsed.equals(expected)) {
+      System.out.println("ERROR: " + name + ", read one char at a time: " + parsed +
+          " instead of " + expected);
+      success = false;
+    }
+    return success;
+  }
+
+  private static List<List<String>> parse(Reader reader) throws IOException {
+    return IngestionTestHooks.parseCsv(reader, '\t');
+  }
+
+  @SafeVarargs
+  private static List<List<String>> records(List<String>... records) {
+    return Arrays.asList(records);
+  }
+
+  private static List<String> fields(String... fields) {
+    return Arrays.asList(fields);
+  }
+
+  /**
+   * Hands out a single character per read.
+   */
+  private static class OneCharReader extends Reader {
+    private final String mData;
+    private int mPos;
+
+    OneCharReader(String data) {
+      mData = data;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+      if (mPos == mData.length()) {
+        return -1;
+      }
+      buffer[offset] = mData.charAt(mPos++);
+      return 1;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.s13g.idioma.data.Bins;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationFilter;
+import com.s13g.idioma.data.TranslationSet;
+import com.s13g.idioma.data.TranslationsUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.s13g.idioma.test.Checks.check;
+
+/**
+ * Checks that Bins configured to draw by due time bring back translations answered incorrectly
+ * before asking never answered ones, do not repeat translations answered correctly before they
+ * are due, and stay fast on a deck with a million translations.
+ */
+public class DueTimeSchedulerCliTest {
+  private static final int NUM_PAIRS = 500000;
+  private static final int NUM_ANSWERS = 200000;
+
+  public static void main(String[] args) {
+    System.setProperty("idioma.scheduler", "due");
+    // Translations answered incorrectly are due again right away, ones answered correctly only
+    // after ten minutes, long after the test finished.
+    System.setProperty("idioma.scheduler.intervalsMinutes", "0,10");
+    boolean success = true;
+
+    List<Translation> translations = new ArrayList<>();
+    for (int i = 0; i < NUM_PAIRS; ++i) {
+      TranslationsUtil.addInitializedTranslationPairsTo("source" + i, "translated" + i, "",
+          i % 3 == 0, false, i % 5 == 0, translations);
+    }
+    long start = System.nanoTime();
+    Bins bins = createBins(translations);
+    System.out.println(String.format("Created bins of %d translations in %d ms.",
+        translations.size(), (System.nanoTime() - start) / 1000000));
+
+    // Every tenth translation is answered incorrectly and must be asked again right away, even
+    // though there are plenty of never answered ones.
+    Set<Long> answeredCorrectly = new HashSet<>();
+    Long answeredIncorrectly = null;
+    start = System.nanoTime();
+    for (int i = 0; i < NUM_ANSWERS; ++i) {
+      TranslationSet set = bins.getRandom();
+      if (set == null) {
+        success &= check(false, "No translation drawn.");
+        break;
+      }
+      long hash = set.mainTranslation.hash;
+      if (answeredIncorrectly != null) {
+        if (hash != answeredIncorrectly) {
+          success &= check(false, "The translation answered incorrectly is not asked first: " +
+              set.mainTranslation.source);
+          break;
+        }
+        answeredIncorrectly = null;
+        bins.processResponse(hash, true);
+        continue;
+      }
+      if (!answeredCorrectly.add(hash)) {
+        success &= check(false, "Translation asked again before it is due: " +
+            set.mainTranslation.source);
+        break;
+      }
+      boolean correct = i % 10 != 0;
+      bins.processResponse(hash, correct);
+      if (!correct) {
+        answeredIncorrectly = hash;
+      }
+    }
+    System.out.println(String.format("Drew and answered %d translations in %d ms.",
+        NUM_ANSWERS, (System.nanoTime() - start) / 1000000));
+
+    TranslationFilter filter = TranslationFilter.ENABLED.withImportant(true).withReversed(true);
+    List<TranslationSet> batch = bins.getRandom(100, filter);
+    Set<Long> batchHashes = new HashSet<>();
+    for (TranslationSet set : batch) {
+      success &= check(filter.matches(set.mainTranslation), "Drew a translation not matching.");
+      batchHashes.add(set.mainTranslation.hash);
+    }
+    success &= check(batch.size() == 100 && batchHashes.size() == 100,
+        "Batch does not hold 100 distinct translations.");
+
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  private static Bins createBins(List<Translation> translations) {
+    return Bins.create(translations, new InMemoryDataStoreUpdater());
+  }
+}
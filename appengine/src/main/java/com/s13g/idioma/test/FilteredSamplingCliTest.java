@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.s13g.idioma.data.Bins;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationFilter;
+import com.s13g.idioma.data.TranslationSet;
+import com.s13g.idioma.data.TranslationsUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.s13g.idioma.test.Checks.check;
+
+/**
+ * Checks that draws restricted by a TranslationFilter only return matching translations, draw
+ * all matching translations of a bin uniformly, and keep working while translations move between
+ * bins.
+ */
+public class FilteredSamplingCliTest {
+  private static final int NUM_PAIRS = 400;
+  private static final int NUM_DRAWS = 400000;
+  /**
+   * Quantile of the standard normal distribution for the significance level of 0.001.
+   */
+  private static final double Z_0_999 = 3.0902;
+
+  public static void main(String[] args) {
+    List<Translation> translations = new ArrayList<>();
+    for (int i = 0; i < NUM_PAIRS; ++i) {
+      TranslationsUtil.addInitializedTranslationPairsTo("source" + i, "translated" + i, "",
+          i % 3 == 0, i % 5 == 0, i % 2 == 0, translations);
+    }
+    Bins bins = createBins(translations);
+
+    boolean success = true;
+    // All translations are in bin 0, so every matching translation must be drawn equally often.
+    success &= checkFilter("Default", bins, TranslationFilter.ENABLED, translations);
+    success &= checkFilter("Important, forward", bins,
+        TranslationFilter.ENABLED.withImportant(true).withReversed(false), translations);
+    success &= checkFilter("Disabled only", bins,
+        TranslationFilter.ALL.withDisabled(true), translations);
+    success &= checkFilter("Conversation, not important", bins,
+        TranslationFilter.ENABLED.withFromConversation(true).withImportant(false), translations);
+
+    // Spread the translations over the bins and check that draws still only match the filter.
+    Random random = new Random(42);
+    for (int i = 0; i < NUM_PAIRS * 20; ++i) {
+      bins.processResponse(translations.get(random.nextInt(translations.size())).hash,
+          random.nextInt(4) != 0);
+    }
+    TranslationFilter filter = TranslationFilter.ENABLED.withImportant(true).withReversed(true);
+    for (int i = 0; i < NUM_DRAWS / 10; ++i) {
+      TranslationSet set = bins.getRandom(filter);
+      if (set == null || !filter.matches(set.mainTranslation)) {
+        success &= check(false, "Draw after moving translations does not match the filter.");
+        break;
+      }
+    }
+    List<Translation> enabledOnly = new ArrayList<>();
+    TranslationsUtil.addInitializedTranslationPairsTo(
+        "source", "translated", "", false, false, false, enabledOnly);
+    success &= check(
+        createBins(enabledOnly).getRandom(TranslationFilter.ALL.withDisabled(true)) == null,
+        "Filter without matching translations returned a translation.");
+
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  private static Bins createBins(List<Translation> translations) {
+    return Bins.create(translations, new InMemoryDataStoreUpdater());
+  }
+
+  private static boolean checkFilter(String name, Bins bins, TranslationFilter filter,
+                                     List<Translation> translations) {
+    Map<Long, Integer> count = new HashMap<>();
+    for (Translation translation : translations) {
+      if (filter.matches(translation)) {
+        count.put(translation.hash, 0);
+      }
+    }
+    for (int i = 0; i < NUM_DRAWS; ++i) {
+      TranslationSet set = bins.getRandom(filter);
+      if (set == null) {
+        return check(false, name + ": Draw returned no translation.");
+      }
+      Integer previous = count.get(set.mainTranslation.hash);
+      if (previous == null) {
+        return check(false, name + ": Drew a translation not matching the filter.");
+      }
+      count.put(set.mainTranslation.hash, previous + 1);
+    }
+
+    double expected = (double) NUM_DRAWS / count.size();
+    double chiSquare = 0;
+    for (int c : count.values()) {
+      chiSquare += (c - expected) * (c - expected) / expected;
+    }
+    int degreesOfFreedom = count.size() - 1;
+    double a = 2.0 / (9.0 * degreesOfFreedom);
+    double critical = degreesOfFreedom * Math.pow(1 - a + Z_0_999 * Math.sqrt(a), 3);
+    System.out.println(String.format("%s: %d matching, chi-square %.2f, critical value %.2f",
+        name, count.size(), chiSquare, critical));
+    return check(chiSquare < critical, name + ": Matching translations are not drawn uniformly.");
+  }
+}
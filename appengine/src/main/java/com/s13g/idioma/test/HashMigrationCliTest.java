@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.s13g.idioma.data.DataTestHooks;
+import com.s13g.idioma.data.Translation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.s13g.idioma.test.Checks.check;
+
+/**
+ * Checks that the hash migration moves translations to their current hash, merges the ones that
+ * end up with the same hash and only removes old IDs that are not used anymore.
+ */
+public class HashMigrationCliTest {
+
+  public static void main(String[] args) {
+    boolean success = true;
+    List<Translation> translations = new ArrayList<>();
+
+    // Only differ in whitespace, the more answered one is kept.
+    Translation hola = create("hola", "hello", false, 101L, 3, 5, 1);
+    DataTestHooks.setAnswers(hola, 3, 5, 1, 77);
+    translations.add(hola);
+    translations.add(create(" hola ", "hello", false, 102L, 1, 1, 0));
+
+    // Only differ in Unicode form, the more answered one is kept.
+    translations.add(create("café", "coffee", false, 103L, 0, 0, 0));
+    Translation cafe = create("cafe\u0301", "coffee", false, 104L, 2, 3, 1);
+    translations.add(cafe);
+
+    // Already has its current hash, but was answered less than its outdated twin.
+    long adiosHash = DataTestHooks.computeHash("adios", "bye", true);
+    translations.add(create("adios", "bye", true, adiosHash, 0, 0, 0));
+    translations.add(create("adios ", "bye", true, 105L, 4, 2, 2));
+
+    // The old ID of one translation is the current hash of another.
+    long graciasHash = DataTestHooks.computeHash("gracias", "thanks", false);
+    translations.add(create("gracias", "thanks", false, 106L, 1, 1, 0));
+    translations.add(create("por favor", "please", false, graciasHash, 0, 0, 0));
+
+    List<Translation> toSave = new ArrayList<>();
+    List<Translation> toRemove = new ArrayList<>();
+    DataTestHooks.migrateHashes(translations, toSave, toRemove);
+    Map<Long, Translation> saved = new HashMap<>();
+    for (Translation translation : toSave) {
+      success &= check(saved.put(translation.hash, translation) == null,
+          "Saves two translations under the same hash.");
+    }
+    List<Long> removed = new ArrayList<>();
+    for (Translation translation : toRemove) {
+      removed.add(translation.hash);
+    }
+
+    Translation savedHola = saved.get(DataTestHooks.computeHash("hola", "hello", false));
+    success &= check(savedHola != null && savedHola.source.equals("hola") &&
+            savedHola.getBin() == 3 && savedHola.getNumRepliesCorrect() == 5 &&
+            savedHola.getNumRepliesIncorrect() == 1 &&
+            DataTestHooks.getLastAnsweredMillis(savedHola) == 77,
+        "Whitespace variants are not merged into the most answered one.");
+    Translation savedCafe = saved.get(DataTestHooks.computeHash("café", "coffee", false));
+    success &= check(savedCafe != null && savedCafe.source.equals(cafe.source) &&
+            savedCafe.getBin() == 2 && savedCafe.getNumRepliesCorrect() == 3,
+        "Unicode variants are not merged into the most answered one.");
+    Translation savedAdios = saved.get(adiosHash);
+    success &= check(savedAdios != null &&
+            (DataTestHooks.getFlagSignature(savedAdios) & DataTestHooks.FLAG_REVERSED) != 0 &&
+            savedAdios.getBin() == 4 && savedAdios.getNumRepliesCorrect() == 2 &&
+            savedAdios.getNumRepliesIncorrect() == 2,
+        "A more answered outdated translation does not replace the current one.");
+    success &= check(saved.containsKey(graciasHash) &&
+            saved.containsKey(DataTestHooks.computeHash("por favor", "please", false)),
+        "Outdated translations are not moved.");
+    success &= check(saved.size() == 5, "Saves " + saved.size() + " translations, not 5.");
+
+    success &= check(removed.containsAll(Arrays.asList(101L, 102L, 103L, 104L, 105L, 106L)),
+        "Not all old IDs are removed: " + removed);
+    success &= check(!removed.contains(graciasHash),
+        "Removes an old ID that is the current hash of another translation.");
+    success &= check(!removed.contains(adiosHash), "Removes a current hash.");
+    success &= check(removed.size() == 6, "Removes " + removed.size() + " IDs, not 6.");
+
+    // Running the migration on its own result changes nothing.
+    toSave.clear();
+    toRemove.clear();
+    DataTestHooks.migrateHashes(saved.values(), toSave, toRemove);
+    success &= check(toSave.isEmpty() && toRemove.isEmpty(),
+        "Migrating migrated translations changes them again.");
+
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  private static Translation create(String source, String translated, boolean reversed,
+                                    long hash, int bin, int numCorrect, int numIncorrect) {
+    Translation translation = DataTestHooks.createTranslation(hash, source, translated, null,
+        reversed ? DataTestHooks.FLAG_REVERSED : 0);
+    DataTestHooks.setAnswers(translation, bin, numCorrect, numIncorrect, 0);
+    return translation;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.s13g.idioma.data.DataStoreUpdater;
+import com.s13g.idioma.data.LongObjectMap;
+import com.s13g.idioma.data.Translation;
+
+import java.util.Collection;
+
+/**
+ * Keeps persisted translations in memory instead of writing them to the datastore, so that the
+ * CLI tests and benchmarks run without one and measure our code, not the datastore.
+ */
+public class InMemoryDataStoreUpdater implements DataStoreUpdater {
+  private final LongObjectMap<Translation> mStore = new LongObjectMap<>();
+  private long mNumPersisted;
+
+  @Override
+  public synchronized void persist(Collection<Translation> translations) {
+    for (Translation translation : translations) {
+      mStore.put(translation.hash, translation);
+    }
+    mNumPersisted += translations.size();
+  }
+
+  @Override
+  public synchronized void remove(Collection<Translation> translations) {
+    for (Translation translation : translations) {
+      mStore.remove(translation.hash);
+    }
+  }
+
+  /**
+   * @return The number of translations stored.
+   */
+  public synchronized int size() {
+    return mStore.size();
+  }
+
+  /**
+   * @return The number of translations persisted so far, counting repeated ones every time.
+   */
+  public synchronized long getNumPersisted() {
+    return mNumPersisted;
+  }
+}
@@ -16,22 +16,133 @@
 
 package com.s13g.idioma.test;
 
+import com.s13g.idioma.data.Bins;
 import com.s13g.idioma.data.RandomBinPicker;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationSet;
+import com.s13g.idioma.data.TranslationsUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.s13g.idioma.test.Checks.check;
 
 /**
- * Testing the distribution of the random bin picker.
+ * Testing the distribution of the random bin picker with a chi-square goodness of fit test, for
+ * different weights and sets of non-empty bins.
  */
 public class RandomBinCliTest {
+  private static final int NUM_DRAWS = 1000000;
+  /**
+   * Quantile of the standard normal distribution for the significance level of 0.001. A correct
+   * picker thus fails a single check once in a thousand runs.
+   */
+  private static final double Z_0_999 = 3.0902;
+
   public static void main(String[] args) {
+    boolean success = true;
+    RandomBinPicker defaultPicker = new RandomBinPicker();
+    success &= checkPicker("Configured weights", defaultPicker, -1L);
+    success &= checkPicker("Bins 1 and 3 empty", defaultPicker, 0b10101L);
+    success &= checkPicker("Only bin 4", defaultPicker, 0b10000L);
+    success &= checkPicker("Eight levels", new RandomBinPicker(128, 64, 32, 16, 8, 4, 2, 1), -1L);
+    success &= checkPicker("Uneven weights", new RandomBinPicker(5, 3, 1, 1), 0b1101L);
+    success &= check(defaultPicker.getRandomBin(0) == -1, "Picked a bin although all are empty.");
+    success &= checkBins();
+
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  private static boolean checkPicker(String name, RandomBinPicker picker, long nonEmptyBins) {
+    int[] count = new int[picker.getNumBins()];
+    for (int i = 0; i < NUM_DRAWS; ++i) {
+      int bin = picker.getRandomBin(nonEmptyBins);
+      if (bin < 0 || (nonEmptyBins & (1L << bin)) == 0) {
+        return check(false, String.format("%s: Picked bin #%d.", name, bin));
+      }
+      count[bin]++;
+    }
+    return checkDistribution(name, picker, nonEmptyBins, count);
+  }
+
+  /**
+   * Leaves some bins of a Bins instance empty and checks that draws never fail and follow the
+   * weights of the remaining bins.
+   */
+  private static boolean checkBins() {
+    List<Translation> translations = new ArrayList<>();
+    for (int i = 0; i < 3; ++i) {
+      TranslationsUtil.addInitializedTranslationPairsTo(
+          "source" + i, "translated" + i, "", false, false, false, translations);
+    }
+    Bins bins = Bins.create(translations, new InMemoryDataStoreUpdater());
     RandomBinPicker picker = new RandomBinPicker();
-    int[] count = new int[5];
-    for (int i = 0; i < 1000000; ++i) {
-      count[picker.getRandomBin()]++;
+    int topBin = picker.getNumBins() - 1;
+    // Move one translation to the top bin and one to the middle, the rest stays in bin 0.
+    for (int i = 0; i < topBin; ++i) {
+      bins.processResponse(translations.get(0).hash, true);
     }
+    for (int i = 0; i < topBin / 2; ++i) {
+      bins.processResponse(translations.get(1).hash, true);
+    }
+    long nonEmptyBins = 1L | (1L << (topBin / 2)) | (1L << topBin);
 
-    System.out.println("===== Result:");
+    int[] count = new int[picker.getNumBins()];
+    for (int i = 0; i < NUM_DRAWS; ++i) {
+      TranslationSet drawn = bins.getRandom();
+      if (drawn == null) {
+        return check(false, "Bins: Draw returned no translation.");
+      }
+      count[drawn.mainTranslation.getBin()]++;
+    }
+    return checkDistribution("Bins with empty bins", picker, nonEmptyBins, count);
+  }
+
+  private static boolean checkDistribution(String name, RandomBinPicker picker,
+                                           long nonEmptyBins, int[] count) {
+    long totalWeight = 0;
+    int degreesOfFreedom = -1;
+    for (int i = 0; i < count.length; ++i) {
+      if ((nonEmptyBins & (1L << i)) != 0) {
+        totalWeight += picker.getWeight(i);
+        degreesOfFreedom++;
+      }
+    }
+    int numDraws = 0;
+    for (int c : count) {
+      numDraws += c;
+    }
+    System.out.println("===== " + name + ":");
+    double chiSquare = 0;
     for (int i = 0; i < count.length; ++i) {
-      System.out.println(String.format("Bin #%d -> %d", i, count[i]));
+      double expected = (nonEmptyBins & (1L << i)) != 0 ?
+          (double) numDraws * picker.getWeight(i) / totalWeight : 0;
+      System.out.println(String.format("Bin #%d -> %d (expected %.0f)", i, count[i], expected));
+      if (expected > 0) {
+        chiSquare += (count[i] - expected) * (count[i] - expected) / expected;
+      } else if (count[i] > 0) {
+        return check(false, String.format("%s: Picked empty bin #%d.", name, i));
+      }
+    }
+    if (degreesOfFreedom == 0) {
+      // Only one bin to pick from, nothing to compare.
+      return true;
     }
+    double critical = criticalValue(degreesOfFreedom);
+    System.out.println(String.format("Chi-square: %.2f, critical value: %.2f", chiSquare,
+        critical));
+    return check(chiSquare < critical, String.format(
+        "%s: Distribution does not match the weights (chi-square %.2f >= %.2f).",
+        name, chiSquare, critical));
+  }
+
+  /**
+   * Approximates the critical value of the chi-square distribution with the Wilson-Hilferty
+   * transformation, which is accurate enough for this purpose.
+   */
+  private static double criticalValue(int degreesOfFreedom) {
+    double a = 2.0 / (9.0 * degreesOfFreedom);
+    return degreesOfFreedom * Math.pow(1 - a + Z_0_999 * Math.sqrt(a), 3);
   }
 }
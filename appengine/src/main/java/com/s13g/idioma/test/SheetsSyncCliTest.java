@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.s13g.idioma.data.SheetSyncState;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationProvider.TranslationProvidingException;
+import com.s13g.idioma.ingestion.SpreadsheetsTranslationProvider;
+import com.s13g.idioma.ingestion.SpreadsheetsTranslationProvider.Sync;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.s13g.idioma.test.Checks.check;
+
+/**
+ * Syncs a Google Sheet served by a fake transport and checks that unchanged sheets are not
+ * fetched and that only changed rows are handed out.
+ */
+public class SheetsSyncCliTest {
+  private static final String HEADING = "[\"From\",\"To\",\"Note\",\"Conv\",\"Disabled\",\"Imp\"]";
+
+  public static void main(String[] args) throws TranslationProvidingException {
+    FakeSheetsTransport transport = new FakeSheetsTransport();
+    SpreadsheetsTranslationProvider provider =
+        SpreadsheetsTranslationProvider.create(transport, null);
+    boolean success = true;
+
+    transport.setSheet("1",
+        "[\"uno\",\"one\",\"\",\"\",\"\",\"\"]",
+        "[\"dos\",\"two\",\"note\",\"x\",\"\",\"\"]",
+        "[\"tres\",\"three\",\"\",\"\",\"\",\"\"]");
+    Sync first = provider.sync(null);
+    success &= check(!first.isUnchanged() && first.complete.size() == 6 && first.changed == null,
+        "First sync must hand out all translations for a full diff.");
+
+    transport.numSheetRequests = 0;
+    Sync unchanged = provider.sync(first.state);
+    success &= check(unchanged.isUnchanged(), "Sync of the same version must be unchanged.");
+    success &= check(transport.numSheetRequests == 0, "Unchanged sheet must not be fetched.");
+
+    // Change the flags of "dos", remove "tres" and add "cuatro".
+    transport.setSheet("2",
+        "[\"uno\",\"one\",\"\",\"\",\"\",\"\"]",
+        "[\"dos\",\"two\",\"note\",\"x\",\"\",\"x\"]",
+        "[\"cuatro\",\"four\",\"\",\"\",\"\",\"\"]");
+    Sync changed = provider.sync(first.state);
+    success &= check(!changed.isUnchanged() && changed.changed != null,
+        "Sync of a new version must hand out the changed rows.");
+    success &= check(sourcesOf(changed.changed).equals(sourcesOf("dos", "two", "cuatro", "four")),
+        "Wrong changed translations: " + sourcesOf(changed.changed));
+    success &= check(changed.rowsRemoved, "Removed row not detected.");
+    success &= check(changed.complete.size() == 6, "Complete set must contain all rows.");
+
+    // Only add a row.
+    transport.setSheet("3",
+        "[\"uno\",\"one\",\"\",\"\",\"\",\"\"]",
+        "[\"dos\",\"two\",\"note\",\"x\",\"\",\"x\"]",
+        "[\"cuatro\",\"four\",\"\",\"\",\"\",\"\"]",
+        "[\"cinco\",\"five\",\"\",\"\",\"\",\"\"]");
+    Sync added = provider.sync(changed.state);
+    success &= check(sourcesOf(added.changed).equals(sourcesOf("cinco", "five")),
+        "Wrong added translations: " + sourcesOf(added.changed));
+    success &= check(!added.rowsRemoved, "No row was removed.");
+
+    // Replace a row by a duplicate of another one.
+    transport.setSheet("4",
+        "[\"uno\",\"one\",\"\",\"\",\"\",\"\"]",
+        "[\"cinco\",\"five\",\"\",\"\",\"\",\"\"]");
+    Sync twoRows = provider.sync(first.state);
+    transport.setSheet("5",
+        "[\"uno\",\"one\",\"\",\"\",\"\",\"\"]",
+        "[\"uno\",\"one\",\"\",\"\",\"\",\"\"]");
+    Sync duplicated = provider.sync(twoRows.state);
+    success &= check(duplicated.rowsRemoved, "Row replaced by a duplicate not detected.");
+    // Drop the duplicate again.
+    transport.setSheet("6",
+        "[\"uno\",\"one\",\"\",\"\",\"\",\"\"]");
+    Sync deduplicated = provider.sync(duplicated.state);
+    success &= check(!deduplicated.rowsRemoved, "A removed duplicate row removes translations.");
+
+    // A state without row fingerprints requires a full diff.
+    Sync withoutFingerprints = provider.sync(new SheetSyncState("id", "2", new long[200000]));
+    success &= check(withoutFingerprints.changed == null,
+        "State without fingerprints must lead to a full diff.");
+
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  private static Set<String> sourcesOf(List<Translation> translations) {
+    Set<String> sources = new HashSet<>();
+    for (Translation translation : translations) {
+      sources.add(translation.source);
+    }
+    return sources;
+  }
+
+  private static Set<String> sourcesOf(String... sources) {
+    Set<String> result = new HashSet<>();
+    for (String source : sources) {
+      result.add(source);
+    }
+    return result;
+  }
+
+  /**
+   * Serves the Drive metadata and the values of the sheet.
+   */
+  private static class FakeSheetsTransport extends MockHttpTransport {
+    private String mVersion;
+    private String mValues;
+    int numSheetRequests;
+
+    void setSheet(String version, String... rows) {
+      mVersion = version;
+      List<String> allRows = new ArrayList<>();
+      allRows.add(HEADING);
+      for (String row : rows) {
+        allRows.add(row);
+      }
+      mValues = "{\"range\": \"Words!A1:F" + allRows.size() + "\", \"majorDimension\": \"ROWS\"," +
+          " \"values\": [" + join(allRows) + "]}";
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, final String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() {
+          MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+          response.setContentType(Json.MEDIA_TYPE);
+          if (url.contains("/drive/v3/files/")) {
+            response.setContent("{\"version\": \"" + mVersion + "\"}");
+          } else if (url.contains("/values/")) {
+            numSheetRequests++;
+            response.setContent(mValues);
+          } else {
+            response.setStatusCode(404);
+          }
+          return response;
+        }
+      };
+    }
+
+    private static String join(List<String> rows) {
+      StringBuilder result = new StringBuilder();
+      for (String row : rows) {
+        result.append(result.length() > 0 ? "," : "").append(row);
+      }
+      return result.toString();
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.s13g.idioma.data.Bins;
+import com.s13g.idioma.data.DataTestHooks;
+import com.s13g.idioma.data.RandomBinPicker;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationsUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.s13g.idioma.test.Checks.check;
+
+/**
+ * Checks that snapshots decode to the translations they were encoded from and that merging the
+ * translations modified since a snapshot was taken yields the current deck. Also measures how
+ * long the in-memory part of loading a deck of {@link #NUM_TRANSLATIONS} from its snapshot
+ * takes.
+ */
+public class SnapshotCliTest {
+  private static final int NUM_TRANSLATIONS = 200000;
+  private static final int NUM_MODIFIED = 2000;
+  private static final int NUM_RUNS = 5;
+
+  public static void main(String[] args) throws IOException {
+    boolean success = true;
+
+    List<Translation> translations = new ArrayList<>();
+    translations.add(create(1L, "hola", "hello", "greeting", 0));
+    translations.add(create(2L, "hello", "hola", null, DataTestHooks.FLAG_REVERSED));
+    translations.add(create(3L, "café", "coffee", "", DataTestHooks.FLAG_DISABLED |
+        DataTestHooks.FLAG_IMPORTANT | DataTestHooks.FLAG_FROM_CONVERSATION));
+    translations.add(create(4L, "日本", "Japan", "greeting", DataTestHooks.FLAG_IMPORTANT));
+    DataTestHooks.setAnswers(translations.get(0), 3, 7, 2, 1234567890000L);
+    DataTestHooks.setModifiedMillis(translations.get(0), 1234567890123L);
+    List<Translation> decoded =
+        DataTestHooks.decodeSnapshot(DataTestHooks.encodeSnapshot(translations));
+    success &= check(decoded.size() == translations.size(),
+        "Decoded " + decoded.size() + " translations, not " + translations.size() + ".");
+    for (int i = 0; i < Math.min(decoded.size(), translations.size()); ++i) {
+      success &= check(isSame(translations.get(i), decoded.get(i)),
+          "Translation " + i + " changed by encoding it.");
+    }
+    success &= check(DataTestHooks.decodeSnapshot(
+            DataTestHooks.encodeSnapshot(new ArrayList<Translation>())).isEmpty(),
+        "An empty snapshot is not empty.");
+
+    byte[] data = DataTestHooks.encodeSnapshot(translations);
+    success &= check(isRejected(Arrays.copyOf(data, data.length / 2)),
+        "A truncated snapshot is accepted.");
+    success &= check(isRejected(new byte[]{1, 2, 3, 4}), "Garbage is accepted as a snapshot.");
+
+    List<Translation> modified = new ArrayList<>();
+    Translation answered = DataTestHooks.copy(translations.get(1));
+    DataTestHooks.setAnswers(answered, 1, 1, 0, 0);
+    modified.add(answered);
+    Translation added = create(5L, "adios", "bye", null, 0);
+    modified.add(added);
+    List<Translation> merged = DataTestHooks.mergeSnapshot(decoded, modified);
+    Map<Long, Translation> byHash = new HashMap<>();
+    for (Translation translation : merged) {
+      success &= check(byHash.put(translation.hash, translation) == null,
+          "Translation " + translation.hash + " is merged twice.");
+    }
+    success &= check(byHash.size() == 5, "Merged " + byHash.size() + " translations, not 5.");
+    success &= check(byHash.get(2L) == answered, "A modified translation is not merged.");
+    success &= check(byHash.get(5L) == added, "An added translation is not merged.");
+    success &= check(byHash.get(1L) == decoded.get(0) && byHash.get(3L) == decoded.get(2),
+        "Unmodified translations are not taken from the snapshot.");
+
+    success &= measureLoad();
+
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  /**
+   * Decodes, merges and bins a large deck, like loading it from a snapshot does after reading
+   * the chunks and the modified translations.
+   */
+  private static boolean measureLoad() throws IOException {
+    Random random = new Random(42);
+    List<Translation> deck = new ArrayList<>(NUM_TRANSLATIONS);
+    for (int i = 0; i < NUM_TRANSLATIONS / 2; ++i) {
+      TranslationsUtil.addInitializedTranslationPairsTo(randomWord(random), randomWord(random),
+          i % 10 == 0 ? randomWord(random) : "", false, false, false, deck);
+    }
+    int numBins = new RandomBinPicker().getNumBins();
+    for (Translation translation : deck) {
+      DataTestHooks.setAnswers(translation, random.nextInt(numBins), random.nextInt(20),
+          random.nextInt(20), 0);
+    }
+    byte[] data = DataTestHooks.encodeSnapshot(deck);
+    List<Translation> modified = new ArrayList<>(NUM_MODIFIED);
+    for (int i = 0; i < NUM_MODIFIED; ++i) {
+      modified.add(DataTestHooks.copy(deck.get(random.nextInt(deck.size()))));
+    }
+
+    long bestNanos = Long.MAX_VALUE;
+    int size = 0;
+    for (int run = 0; run < NUM_RUNS; ++run) {
+      long start = System.nanoTime();
+      List<Translation> merged = DataTestHooks.mergeSnapshot(DataTestHooks.decodeSnapshot(data),
+          copyAll(modified));
+      Bins bins = Bins.create(merged, new InMemoryDataStoreUpdater());
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+      size = bins.size();
+    }
+    System.out.println(String.format("%d translations, snapshot of %d KB: " +
+            "decoded, merged with %d modified and binned in %d ms.", deck.size(),
+        data.length / 1024, NUM_MODIFIED, bestNanos / 1000000));
+    return check(size == deck.size(), "Loaded " + size + " translations, not " + deck.size());
+  }
+
+  private static Translation create(long hash, String source, String translated, String note,
+                                    int flags) {
+    return DataTestHooks.createTranslation(hash, source, translated, note, flags);
+  }
+
+  private static boolean isSame(Translation a, Translation b) {
+    return a.hash.equals(b.hash) && equal(a.source, b.source) &&
+        equal(a.translated, b.translated) && equal(a.note, b.note) &&
+        DataTestHooks.getFlagSignature(a) == DataTestHooks.getFlagSignature(b) &&
+        a.getBin() == b.getBin() && a.getNumRepliesCorrect() == b.getNumRepliesCorrect() &&
+        a.getNumRepliesIncorrect() == b.getNumRepliesIncorrect() &&
+        DataTestHooks.getModifiedMillis(a) == DataTestHooks.getModifiedMillis(b) &&
+        DataTestHooks.getLastAnsweredMillis(a) == DataTestHooks.getLastAnsweredMillis(b);
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private static boolean isRejected(byte[] data) {
+    try {
+      DataTestHooks.decodeSnapshot(data);
+      return false;
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  private static List<Translation> copyAll(Collection<Translation> translations) {
+    List<Translation> copies = new ArrayList<>(translations.size());
+    for (Translation translation : translations) {
+      copies.add(DataTestHooks.copy(translation));
+    }
+    return copies;
+  }
+
+  private static String randomWord(Random random) {
+    char[] word = new char[3 + random.nextInt(6)];
+    for (int i = 0; i < word.length; ++i) {
+      word[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new String(word);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.test;
+
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationsUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.s13g.idioma.test.Checks.check;
+
+/**
+ * Checks that translation hashes tell apart translations whose 32 bit hashes used to collide,
+ * ignore differences in whitespace and Unicode form, and agree with equals and hashCode.
+ */
+public class TranslationHashCliTest {
+  private static final int NUM_PAIRS = 300000;
+
+  public static void main(String[] args) {
+    boolean success = true;
+
+    // "Aa" and "BB" have the same String hash code.
+    List<Translation> colliding = new ArrayList<>();
+    TranslationsUtil.addInitializedTranslationPairsTo(
+        "Aa", "x", "", false, false, false, colliding);
+    TranslationsUtil.addInitializedTranslationPairsTo(
+        "BB", "x", "", false, false, false, colliding);
+    success &= check(!colliding.get(0).equals(colliding.get(2)),
+        "Translations with colliding 32 bit hashes are equal.");
+
+    // The reverse of "b -> a" reads like the forward translation "a -> b".
+    List<Translation> directions = new ArrayList<>();
+    TranslationsUtil.addInitializedTranslationPairsTo(
+        "a", "b", "", false, false, false, directions);
+    TranslationsUtil.addInitializedTranslationPairsTo(
+        "b", "a", "", false, false, false, directions);
+    success &= check(!directions.get(0).equals(directions.get(3)),
+        "A reversed translation has the hash of a regular one.");
+
+    List<Translation> normalized = new ArrayList<>();
+    TranslationsUtil.addInitializedTranslationPairsTo(
+        "café", "coffee", "", false, false, false, normalized);
+    TranslationsUtil.addInitializedTranslationPairsTo(
+        " café", "coffee ", "", false, false, false, normalized);
+    success &= check(normalized.get(0).equals(normalized.get(2)) &&
+            normalized.get(0).hashCode() == normalized.get(2).hashCode(),
+        "The same text in another form has a different hash.");
+
+    Random random = new Random(42);
+    List<Translation> translations = new ArrayList<>(NUM_PAIRS * 2);
+    for (int i = 0; i < NUM_PAIRS; ++i) {
+      TranslationsUtil.addInitializedTranslationPairsTo(randomWord(random), randomWord(random), "",
+          false, false, false, translations);
+    }
+    Set<Long> hashes = new HashSet<>();
+    Set<String> texts = new HashSet<>();
+    for (int i = 0; i < translations.size(); ++i) {
+      Translation translation = translations.get(i);
+      hashes.add(translation.hash);
+      // Every other translation is a reversed one.
+      texts.add(translation.source + "\n" + translation.translated + "\n" + (i % 2));
+    }
+    System.out.println(String.format("%d distinct translations, %d distinct hashes",
+        texts.size(), hashes.size()));
+    success &= check(hashes.size() == texts.size(), "Distinct translations share a hash.");
+
+    System.out.println(success ? "PASSED" : "FAILED");
+    System.exit(success ? 0 : 1);
+  }
+
+  private static String randomWord(Random random) {
+    char[] word = new char[3 + random.nextInt(6)];
+    for (int i = 0; i < word.length; ++i) {
+      word[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new String(word);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.ui;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template that has been parsed into literal text and placeholder segments. Immutable, so it
+ * can be shared between requests.
+ */
+class CompiledTemplate {
+  static final String KEY_PREFIX = "<!--IDI ";
+  static final String KEY_SUFFIX = " OMA-->";
+
+  /**
+   * The literal segments. There is always one more literal than there are keys; the key at index
+   * i is rendered between the literals i and i+1.
+   */
+  private final String[] mLiterals;
+  /**
+   * The literal segments encoded to UTF-8, so they are only encoded once.
+   */
+  private final byte[][] mLiteralBytes;
+  private final String[] mKeys;
+
+  private CompiledTemplate(String[] literals, String[] keys) {
+    mLiterals = literals;
+    mKeys = keys;
+    mLiteralBytes = new byte[literals.length][];
+    for (int i = 0; i < literals.length; ++i) {
+      mLiteralBytes[i] = literals[i].getBytes(Charsets.UTF_8);
+    }
+  }
+
+  /**
+   * Splits the given template content at its placeholders.
+   */
+  static CompiledTemplate compile(String content) {
+    List<String> literals = new ArrayList<>();
+    List<String> keys = new ArrayList<>();
+    int pos = 0;
+    while (true) {
+      int start = content.indexOf(KEY_PREFIX, pos);
+      int end = start < 0 ? -1 : content.indexOf(KEY_SUFFIX, start + KEY_PREFIX.length());
+      if (end < 0) {
+        literals.add(content.substring(pos));
+        break;
+      }
+      literals.add(content.substring(pos, start));
+      keys.add(content.substring(start + KEY_PREFIX.length(), end));
+      pos = end + KEY_SUFFIX.length();
+    }
+    return new CompiledTemplate(
+        literals.toArray(new String[literals.size()]), keys.toArray(new String[keys.size()]));
+  }
+
+  /**
+   * Renders the template in a single pass. Placeholders without a value are kept as they are.
+   */
+  void render(Map<String, String> values, Writer writer) throws IOException {
+    for (int i = 0; i < mKeys.length; ++i) {
+      writer.write(mLiterals[i]);
+      String value = values.get(mKeys[i]);
+      if (value != null) {
+        writer.write(value);
+      } else {
+        writer.write(KEY_PREFIX);
+        writer.write(mKeys[i]);
+        writer.write(KEY_SUFFIX);
+      }
+    }
+    writer.write(mLiterals[mKeys.length]);
+  }
+
+  /**
+   * Renders the template in a single pass as UTF-8. Placeholders without a value are kept as
+   * they are.
+   */
+  void render(Map<String, String> values, OutputStream out) throws IOException {
+    for (int i = 0; i < mKeys.length; ++i) {
+      out.write(mLiteralBytes[i]);
+      String value = values.get(mKeys[i]);
+      out.write((value != null ? value : KEY_PREFIX + mKeys[i] + KEY_SUFFIX)
+          .getBytes(Charsets.UTF_8));
+    }
+    out.write(mLiteralBytes[mKeys.length]);
+  }
+}
@@ -17,45 +17,62 @@
 package com.s13g.idioma.ui;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Preconditions;
 import com.google.common.html.HtmlEscapers;
-import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * A simple string/replace based templating mechanism.
+ * A simple placeholder based templating mechanism. Template files are parsed once and cached
+ * until the file changes on disk.
  */
 public class Template {
-  private static final String KEY_FORMAT = "<!--IDI %s OMA-->";
-  private final String content;
+  private static final ConcurrentMap<String, CachedFile> sCache = new ConcurrentHashMap<>();
+
+  private final CompiledTemplate compiled;
   private final Map<String, String> values = new HashMap<>();
 
-  private Template(String content) {
-    this.content = content;
+  private Template(CompiledTemplate compiled) {
+    this.compiled = compiled;
   }
 
   public static Template empty() {
-    return new Template("");
+    return fromString("");
+  }
+
+  /**
+   * Creates a template from the given content. The content is parsed on every call, use
+   * {@link #fromFile(String)} for templates that are rendered repeatedly.
+   */
+  public static Template fromString(String content) {
+    return new Template(CompiledTemplate.compile(content));
   }
 
   public static Template fromFile(String filename) throws IOException {
-    // TODO: need to cache file contents.
-    InputStream fileStream = new FileInputStream(new File(filename));
-    Preconditions.checkNotNull(fileStream, "Cannot load file " + filename);
-    return new Template(CharStreams.toString(new InputStreamReader(fileStream, Charsets.UTF_8)));
+    File file = new File(filename);
+    long lastModified = file.lastModified();
+    long length = file.length();
+    CachedFile cached = sCache.get(filename);
+    if (cached == null || cached.lastModified != lastModified || cached.length != length) {
+      // Racing requests might both parse the file, which is harmless.
+      cached = new CachedFile(
+          CompiledTemplate.compile(Files.toString(file, Charsets.UTF_8)), lastModified, length);
+      sCache.put(filename, cached);
+    }
+    return new Template(cached.compiled);
   }
 
   public Template with(String key, String value) {
     // Escape by default to prevent injection attacks.
-    value = HtmlEscapers.htmlEscaper().escape(value);
-    values.put(key, value != null ? value : "");
+    values.put(key, value != null ? HtmlEscapers.htmlEscaper().escape(value) : "");
     return this;
   }
 
@@ -69,11 +86,40 @@ public class Template {
     return this;
   }
 
+  /**
+   * Renders the template straight into the given writer.
+   */
+  public void renderTo(Writer writer) throws IOException {
+    compiled.render(values, writer);
+  }
+
+  /**
+   * Renders the template straight into the given stream, encoded as UTF-8.
+   */
+  public void renderTo(OutputStream out) throws IOException {
+    compiled.render(values, out);
+  }
+
   public String render() {
-    String result = content;
-    for (Map.Entry<String, String> entry : values.entrySet()) {
-      result = result.replace(String.format(KEY_FORMAT, entry.getKey()), entry.getValue());
+    StringWriter writer = new StringWriter();
+    try {
+      renderTo(writer);
+    } catch (IOException e) {
+      // Cannot happen for a StringWriter.
+      throw new IllegalStateException(e);
+    }
+    return writer.toString();
+  }
+
+  private static class CachedFile {
+    final CompiledTemplate compiled;
+    final long lastModified;
+    final long length;
+
+    CachedFile(CompiledTemplate compiled, long lastModified, long length) {
+      this.compiled = compiled;
+      this.lastModified = lastModified;
+      this.length = length;
     }
-    return result;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.benchmark;
+
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationsUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates synthetic decks for the benchmarks.
+ */
+class Decks {
+  /**
+   * Every 10th pair shares its source with the previous one, so that translation sets have
+   * alternatives.
+   */
+  private static final int ALTERNATIVE_EVERY = 10;
+
+  private Decks() {
+  }
+
+  /**
+   * @param numTranslations the number of translations to create. Since pairs are created in both
+   *                        directions, this should be even.
+   * @param version         changes the translated text, so that two decks with different versions
+   *                        only partially overlap.
+   * @return The translations, with their hashes set.
+   */
+  static List<Translation> create(int numTranslations, int version) {
+    List<Translation> translations = new ArrayList<>(numTranslations);
+    for (int i = 0; i < numTranslations / 2; ++i) {
+      TranslationsUtil.addInitializedTranslationPairsTo(sourceOf(i), translatedOf(i, version),
+          "note " + i, i % 3 == 0, false, i % 7 == 0, translations);
+    }
+    return translations;
+  }
+
+  /**
+   * Creates the same deck as {@link #create(int, int)} as tab separated CSV, including the header.
+   */
+  static String createCsv(int numTranslations, int version) {
+    StringBuilder csv = new StringBuilder(numTranslations * 24);
+    csv.append("From\tTo\tNote\tConversation\tDisabled\tImportant\n");
+    for (int i = 0; i < numTranslations / 2; ++i) {
+      csv.append(sourceOf(i)).append('\t')
+          .append(translatedOf(i, version)).append('\t')
+          .append("note ").append(i).append('\t')
+          .append(i % 3 == 0 ? "x" : "").append('\t')
+          .append('\t')
+          .append(i % 7 == 0 ? "x" : "").append('\n');
+    }
+    return csv.toString();
+  }
+
+  private static String sourceOf(int i) {
+    return "source " + (i % ALTERNATIVE_EVERY == ALTERNATIVE_EVERY - 1 ? i - 1 : i);
+  }
+
+  private static String translatedOf(int i, int version) {
+    // Roughly one in ten translations differs between consecutive versions.
+    return "translated " + i + (i % 10 == 0 ? " v" + version : "");
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.benchmark;
+
+import com.google.common.io.CharSource;
+import com.s13g.idioma.data.IngestionUtil;
+import com.s13g.idioma.data.IngestionUtil.IngestionException;
+import com.s13g.idioma.data.IngestionUtil.UpdateStats;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationProvider.TranslationProvidingException;
+import com.s13g.idioma.ingestion.CsvTranslationProvider;
+import com.s13g.idioma.test.InMemoryDataStoreUpdater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures parsing an uploaded CSV and ingesting a new version of a deck into an existing one.
+ */
+public class IngestionBenchmark {
+  @Benchmark
+  public Collection<Translation> parseCsv(CsvState state) throws TranslationProvidingException {
+    return new CsvTranslationProvider(CharSource.wrap(state.csv)).getCompleteSet();
+  }
+
+  @Benchmark
+  public UpdateStats ingest(DeckState state) throws IngestionException {
+    return new IngestionUtil().ingest(state.existing, state.groundTruth, state.updater);
+  }
+
+  @State(Scope.Benchmark)
+  public static class CsvState {
+    @Param({"10000", "100000", "1000000"})
+    public int deckSize;
+
+    String csv;
+
+    @Setup
+    public void setUp() {
+      csv = Decks.createCsv(deckSize, 1);
+    }
+  }
+
+  /**
+   * Ingestion updates the existing translations in place, so they are created anew for every
+   * invocation. This is excluded from the measurement.
+   */
+  @State(Scope.Benchmark)
+  public static class DeckState {
+    @Param({"10000", "100000", "1000000"})
+    public int deckSize;
+
+    List<Translation> existing;
+    List<Translation> groundTruth;
+    InMemoryDataStoreUpdater updater;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+      existing = Decks.create(deckSize, 0);
+      groundTruth = Decks.create(deckSize, 1);
+      updater = new InMemoryDataStoreUpdater();
+      updater.persist(existing);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.benchmark;
+
+import com.s13g.idioma.data.IngestionUtil;
+import com.s13g.idioma.data.IngestionUtil.UpdateStats;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationsUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures time and allocation of diffing existing and ingested translations. The ingested data
+ * drops 1% of the existing pairs, adds 1% new ones and changes the flags of another 1%.
+ * <p>
+ * Deck sizes (number of translations) can be given as arguments. The largest default size needs a
+ * heap of about 4 GB, see the ingestionDiff task in build.gradle.
+ * <p>
+ * Unlike the JMH benchmarks, this counts the allocations of the diff's worker threads too, which
+ * relies on com.sun.management. That is why it lives here and not in the application.
+ */
+public class IngestionDiffCliBenchmark {
+  private static final int[] DEFAULT_SIZES = {100000, 1000000, 5000000};
+  private static final int WARMUP_RUNS = 1;
+  private static final int MEASURED_RUNS = 3;
+
+  public static void main(String[] args) {
+    int[] sizes = DEFAULT_SIZES;
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; ++i) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println("===== Result:");
+    for (int size : sizes) {
+      // Each pair results in a translation and its reverse.
+      int numPairs = size / 2;
+      String[] sources = new String[numPairs + numPairs / 100];
+      String[] translated = new String[sources.length];
+      for (int i = 0; i < sources.length; ++i) {
+        sources[i] = "source" + i;
+        translated[i] = "translated" + i;
+      }
+
+      long totalNanos = 0;
+      long totalBytes = 0;
+      UpdateStats stats = null;
+      for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; ++run) {
+        // Diffing updates the existing translations, so every run needs fresh data.
+        List<Translation> existing = createTranslations(sources, translated, 0, numPairs, false);
+        List<Translation> ingested =
+            createTranslations(sources, translated, numPairs / 100, sources.length, true);
+        System.gc();
+
+        long bytesBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        stats = UpdateStats.from(new IngestionUtil().determineUpdates(existing, ingested));
+        long durationNanos = System.nanoTime() - start;
+        long allocatedBytes = getAllocatedBytes() - bytesBefore;
+        if (run >= WARMUP_RUNS) {
+          totalNanos += durationNanos;
+          totalBytes += allocatedBytes;
+        }
+      }
+      System.out.println(String.format(
+          "%,d translations: %,.1f ms, %,.1f MB allocated (deleted %d, added %d, updated %d)",
+          size, totalNanos / 1e6 / MEASURED_RUNS, totalBytes / 1e6 / MEASURED_RUNS,
+          stats.numDeleted, stats.numAdded, stats.numUpdated));
+    }
+  }
+
+  /**
+   * Creates the translation pairs in the range [from, to). If requested, every 100th pair is
+   * marked as important.
+   */
+  private static List<Translation> createTranslations(String[] sources, String[] translated,
+                                                      int from, int to, boolean changeFlags) {
+    List<Translation> translations = new ArrayList<>((to - from) * 2);
+    for (int i = from; i < to; ++i) {
+      boolean important = changeFlags && i % 100 == 50;
+      TranslationsUtil.addInitializedTranslationPairsTo(
+          sources[i], translated[i], "", false, false, important, translations);
+    }
+    return translations;
+  }
+
+  /**
+   * @return The bytes allocated so far by all live threads, including the diff worker threads.
+   */
+  private static long getAllocatedBytes() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long total = 0;
+    for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (allocated > 0) {
+        total += allocated;
+      }
+    }
+    return total;
+  }
+}
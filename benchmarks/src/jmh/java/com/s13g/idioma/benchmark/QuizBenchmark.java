@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.benchmark;
+
+import com.s13g.idioma.data.Bins;
+import com.s13g.idioma.data.Translation;
+import com.s13g.idioma.data.TranslationSet;
+import com.s13g.idioma.test.InMemoryDataStoreUpdater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the operations every quiz request goes through: Drawing a translation, answering it
+ * and assembling the translation set that is shown.
+ */
+@State(Scope.Benchmark)
+public class QuizBenchmark {
+  @Param({"10000", "100000", "1000000"})
+  public int deckSize;
+
+  private Bins mBins;
+  private long[] mHashes;
+  private Translation[] mTranslations;
+  private List<Translation> mAlternatives;
+
+  @Setup
+  public void setUp() {
+    List<Translation> translations = Decks.create(deckSize, 0);
+    mBins = Bins.create(translations, new InMemoryDataStoreUpdater());
+    mTranslations = translations.toArray(new Translation[translations.size()]);
+    mHashes = new long[mTranslations.length];
+    for (int i = 0; i < mTranslations.length; ++i) {
+      mHashes[i] = mTranslations[i].hash;
+    }
+    mAlternatives = new ArrayList<>();
+    mAlternatives.add(mTranslations[0]);
+    mAlternatives.add(mTranslations[2]);
+    mAlternatives.add(mTranslations[4]);
+
+    // Spread the translations over the bins, like a deck that has been used for a while.
+    Random random = new Random(42);
+    for (int i = 0; i < deckSize * 2; ++i) {
+      mBins.processResponse(mHashes[random.nextInt(mHashes.length)], random.nextInt(3) > 0);
+    }
+  }
+
+  @Benchmark
+  public TranslationSet getRandom() {
+    return mBins.getRandom();
+  }
+
+  @Benchmark
+  public void processResponse(ThreadIndex index) {
+    // Mostly correct answers, so translations keep moving up as well as down.
+    mBins.processResponse(mHashes[index.next(mHashes.length)], index.counter % 4 != 0);
+  }
+
+  @Benchmark
+  public TranslationSet translationSetFrom(ThreadIndex index) {
+    return TranslationSet.from(mTranslations[index.next(mTranslations.length)], mAlternatives);
+  }
+
+  /**
+   * Walks through the deck, so that every thread answers different translations without paying
+   * for a random number generator.
+   */
+  @State(Scope.Thread)
+  public static class ThreadIndex {
+    int counter;
+
+    int next(int bound) {
+      counter = (counter + 7919) % bound;
+      return counter;
+    }
+  }
+}
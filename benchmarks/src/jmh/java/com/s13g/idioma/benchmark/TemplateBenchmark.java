@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017, Sascha Häberling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.s13g.idioma.benchmark;
+
+import com.google.common.io.CharStreams;
+import com.s13g.idioma.ui.Template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Measures rendering the quiz page, with the values MainServlet sets.
+ */
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+  private static final String FALLBACK_TEMPLATE =
+      "<html><body><h1><!--IDI source OMA--></h1><p><!--IDI note OMA--></p>" +
+          "<input type='hidden' value='<!--IDI hash OMA-->'>" +
+          "<div><!--IDI solution OMA--></div><div><!--IDI alt_solutions OMA--></div>" +
+          "<div><!--IDI alt_solution_hashes OMA--></div></body></html>";
+
+  private String mTemplateFile;
+  private final Writer mWriter = CharStreams.nullWriter();
+
+  @Setup
+  public void setUp() {
+    // Set by the build to the quiz page of the appengine module.
+    String file = System.getProperty("idioma.templateFile");
+    mTemplateFile = file != null && new File(file).isFile() ? file : null;
+  }
+
+  @Benchmark
+  public String render() throws IOException {
+    return createTemplate().render();
+  }
+
+  @Benchmark
+  public void renderToWriter() throws IOException {
+    createTemplate().renderTo(mWriter);
+  }
+
+  private Template createTemplate() throws IOException {
+    Template template =
+        mTemplateFile != null ? Template.fromFile(mTemplateFile) : Template.fromString(
+            FALLBACK_TEMPLATE);
+    return template
+        .with("source", "der Hund")
+        .with("note", "Ein <Haustier>")
+        .with("hash", -4323412341234L)
+        .with("solution", "the dog")
+        .with("alt_solutions", "the hound, the canine")
+        .with("alt_solution_hashes", "12345678,-87654321");
+  }
+}